@@ -0,0 +1,127 @@
+package benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import lib.TinyLfuCache;
+
+/**
+ * Compares formatting greetings the way the lesson04 Formatter does, with and without caching, for (greeting,
+ * helloTo) pairs drawn from a Zipfian distribution. Reports hit ratio, ns/op and ops/sec with several threads, for
+ * {@link TinyLfuCache} and, as a baseline, a plain LRU cache of the same size.
+ */
+public class CacheBenchmark {
+    private static final String[] GREETINGS = { "Hello", "Bonjour", "Hola", "Ciao", "Hallo", "Privet", "Ola", "Hej" };
+
+    public static void main(String[] args) throws Exception {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        double skew = args.length > 2 ? Double.parseDouble(args[2]) : 0.99;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        int opsPerThread = 2_000_000;
+
+        int[] sample = zipf(keys, skew, threads * opsPerThread, new Random(42));
+        System.out.printf("%d keys, capacity %d, zipf s=%.2f, %d threads%n", keys, capacity, skew, threads);
+
+        for (int round = 0; round < 2; round++) {
+            run("no cache", sample, threads, opsPerThread, null);
+
+            TinyLfuCache<String, String> tinyLfu = new TinyLfuCache<String, String>(capacity, 10, TimeUnit.MINUTES);
+            run("tinylfu", sample, threads, opsPerThread, key -> {
+                String value = tinyLfu.get(key);
+                if (value == null) {
+                    value = format(key);
+                    tinyLfu.put(key, value);
+                }
+                return value;
+            });
+            System.out.printf("  hit ratio %.3f, evictions %d, rejections %d%n", tinyLfu.getHitRatio(),
+                    tinyLfu.getEvictions(), tinyLfu.getRejections());
+
+            Map<String, String> lru = new LinkedHashMap<String, String>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > capacity;
+                }
+            };
+            long[] lruHits = new long[1];
+            run("lru", sample, threads, opsPerThread, key -> {
+                synchronized (lru) {
+                    String value = lru.get(key);
+                    if (value == null) {
+                        value = format(key);
+                        lru.put(key, value);
+                    } else {
+                        lruHits[0]++;
+                    }
+                    return value;
+                }
+            });
+            System.out.printf("  hit ratio %.3f%n", (double) lruHits[0] / sample.length);
+        }
+    }
+
+    private static void run(String name, int[] sample, int threads, int opsPerThread,
+            Function<String, String> cache) throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int offset = t * opsPerThread;
+            workers[t] = new Thread(() -> {
+                for (int i = offset; i < offset + opsPerThread; i++) {
+                    String key = GREETINGS[sample[i] % GREETINGS.length] + '\n' + "name" + sample[i];
+                    String value = cache == null ? format(key) : cache.apply(key);
+                    if (value.isEmpty()) {
+                        throw new IllegalStateException();
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        long ops = (long) threads * opsPerThread;
+        System.out.printf("%-9s %7.1f ns/op %12.0f ops/sec%n", name, (double) elapsed * threads / ops,
+                ops * 1e9 / elapsed);
+    }
+
+    private static String format(String key) {
+        int newline = key.indexOf('\n');
+        return String.format("%s, %s!", key.substring(0, newline), key.substring(newline + 1));
+    }
+
+    /**
+     * Draws keys 0..n-1 with probability proportional to 1 / (rank + 1)^skew.
+     */
+    private static int[] zipf(int n, double skew, int count, Random random) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, skew);
+            cdf[i] = sum;
+        }
+        int[] sample = new int[count];
+        for (int i = 0; i < count; i++) {
+            double u = random.nextDouble() * sum;
+            int lo = 0;
+            int hi = n - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cdf[mid] < u) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            sample[i] = lo;
+        }
+        return sample;
+    }
+}
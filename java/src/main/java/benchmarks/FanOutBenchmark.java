@@ -0,0 +1,123 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpServer;
+
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.NoopReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import lib.FanOut;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * End-to-end latency of N downstream calls made one after the other compared with the same calls made concurrently
+ * with {@link FanOut}. The downstream is an in-process HTTP server that answers after 5-25ms, so the sequential
+ * latency grows with the sum of the call latencies and the fan-out latency with their maximum.
+ */
+public class FanOutBenchmark {
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+        // without TCP_NODELAY every response waits for a delayed ACK, which adds ~40ms to each call
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            try {
+                Thread.sleep(5 + ThreadLocalRandom.current().nextInt(21));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "ok".getBytes();
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort() + "/";
+
+        OkHttpClient client = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(64, 1, TimeUnit.MINUTES))
+                .build();
+        JaegerTracer tracer = new JaegerTracer.Builder("hello-world")
+                .withSampler(new ConstSampler(true))
+                .withReporter(new NoopReporter())
+                .build();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            for (int n : new int[] { 1, 2, 4, 8, 16 }) {
+                // warm up connections and code paths
+                run(tracer, client, executor, url, n, 20, false);
+                run(tracer, client, executor, url, n, 20, true);
+                long[] sequential = run(tracer, client, executor, url, n, rounds, false);
+                long[] parallel = run(tracer, client, executor, url, n, rounds, true);
+                System.out.printf("n=%-3d sequential %s   fan-out %s%n", n, summary(sequential), summary(parallel));
+            }
+        } finally {
+            executor.shutdown();
+            server.stop(0);
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+        }
+    }
+
+    private static long[] run(Tracer tracer, OkHttpClient client, ExecutorService executor, String url, int n,
+            int rounds, boolean parallel) throws Exception {
+        long[] latencies = new long[rounds];
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            Span span = tracer.buildSpan("say-hello").start();
+            try (Scope scope = tracer.scopeManager().activate(span)) {
+                if (parallel) {
+                    try (FanOut fanOut = FanOut.of(tracer, executor)) {
+                        for (int i = 0; i < n; i++) {
+                            fanOut.fork("call", () -> call(client, url));
+                        }
+                        fanOut.join();
+                    }
+                } else {
+                    for (int i = 0; i < n; i++) {
+                        Span child = tracer.buildSpan("call").start();
+                        try (Scope childScope = tracer.scopeManager().activate(child)) {
+                            call(client, url);
+                        } finally {
+                            child.finish();
+                        }
+                    }
+                }
+            } finally {
+                span.finish();
+            }
+            latencies[r] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+
+    private static String call(OkHttpClient client, String url) throws IOException {
+        try (Response response = client.newCall(new Request.Builder().url(url).build()).execute()) {
+            return response.body().string();
+        }
+    }
+
+    private static String summary(long[] latencies) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        return String.format("p50 %6.1fms p99 %6.1fms", sorted[sorted.length / 2] / 1e6,
+                sorted[(int) (sorted.length * 0.99)] / 1e6);
+    }
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import org.slf4j.MDC;
+
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.NoopReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.opentracing.Scope;
+import io.opentracing.ScopeManager;
+import io.opentracing.Span;
+import io.opentracing.util.ThreadLocalScopeManager;
+import lib.MdcScopeManager;
+
+/**
+ * Measures the per-scope cost of {@link MdcScopeManager} on top of the plain thread-local scope manager: activating
+ * a span, nesting a child scope, and closing both. Run it with {@code run.sh} so that logback provides the MDC;
+ * with the slf4j no-op binding the MDC calls are free and the numbers are meaningless.
+ */
+public class MdcScopeBenchmark {
+    private static volatile Object sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20_000_000;
+        System.out.println("MDC adapter: " + MDC.getMDCAdapter().getClass().getName());
+        JaegerTracer tracer = new JaegerTracer.Builder("hello-world")
+                .withSampler(new ConstSampler(true))
+                .withReporter(new NoopReporter())
+                .build();
+        Span parent = tracer.buildSpan("say-hello").start();
+        Span child = tracer.buildSpan("formatString").asChildOf(parent).start();
+
+        ScopeManager plain = new ThreadLocalScopeManager();
+        ScopeManager mdc = new MdcScopeManager(new ThreadLocalScopeManager());
+        for (int round = 0; round < 3; round++) {
+            long base = run("plain", plain, parent, child, iterations);
+            long decorated = run("mdc", mdc, parent, child, iterations);
+            System.out.printf("mdc overhead: %.1f ns/scope%n", (decorated - base) / (2.0 * iterations));
+        }
+    }
+
+    private static long run(String name, ScopeManager scopeManager, Span parent, Span child, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            try (Scope outer = scopeManager.activate(parent)) {
+                try (Scope inner = scopeManager.activate(child)) {
+                    sink = inner;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-6s %6.1f ns/scope%n", name, elapsed / (2.0 * iterations));
+        return elapsed;
+    }
+}
@@ -0,0 +1,161 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.CompositeReporter;
+import io.jaegertracing.internal.reporters.NoopReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.tag.Tags;
+import lib.ConcurrencyLimiter;
+import lib.LoadSheddingFilter;
+
+/**
+ * Goodput of a server under twice the load it can handle, with and without a {@link ConcurrencyLimiter}. The server
+ * has a large thread pool, like Jetty, in front of a resource that serves 4 requests at a time in 20ms each, i.e.
+ * 200 requests/sec. Clients send 400 requests/sec open loop and give up after 1 second. Without a limit, requests
+ * queue for the resource until nearly all of them time out; with the limit, the excess is rejected with 503 and the
+ * admitted requests complete in time.
+ *
+ * The server applies the limiter the same way {@link LoadSheddingFilter} does, since the JDK HTTP server is used
+ * instead of Jersey to keep the benchmark self-contained.
+ */
+public class OverloadBenchmark {
+    private static final int CAPACITY = 4;
+    private static final long SERVICE_MILLIS = 20;
+    private static final long CLIENT_TIMEOUT_MILLIS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int rate = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        System.out.printf("capacity %d req/s, offered %d req/s for %ds%n", CAPACITY * 1000 / SERVICE_MILLIS, rate,
+                seconds);
+        for (boolean limited : new boolean[] { false, true }) {
+            run(limited, rate, seconds);
+        }
+    }
+
+    private static void run(boolean limited, int rate, int seconds) throws Exception {
+        ConcurrencyLimiter limiter = limited ? new ConcurrencyLimiter(100, 20, 1000) : null;
+        JaegerTracer tracer = new JaegerTracer.Builder("formatter")
+                .withSampler(new ConstSampler(true))
+                .withReporter(limited ? new CompositeReporter(new NoopReporter(), limiter) : new NoopReporter())
+                .build();
+        Semaphore resource = new Semaphore(CAPACITY, true);
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 4096);
+        ExecutorService serverThreads = Executors.newFixedThreadPool(200);
+        server.setExecutor(serverThreads);
+        server.createContext("/format", exchange -> {
+            if (limiter != null && !limiter.tryAcquire()) {
+                Span span = tracer.buildSpan("format")
+                        .withTag(Tags.SAMPLING_PRIORITY.getKey(), 0)
+                        .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER)
+                        .start();
+                span.finish();
+                respond(exchange, 503);
+                return;
+            }
+            try {
+                Span span = tracer.buildSpan("format").withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER).start();
+                try (Scope scope = tracer.scopeManager().activate(span)) {
+                    resource.acquire();
+                    try {
+                        Thread.sleep(SERVICE_MILLIS);
+                    } finally {
+                        resource.release();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    span.finish();
+                }
+                respond(exchange, 200);
+            } finally {
+                if (limiter != null) {
+                    limiter.release();
+                }
+            }
+        });
+        server.start();
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        HttpRequest request = HttpRequest.newBuilder(
+                URI.create("http://localhost:" + server.getAddress().getPort() + "/format?helloTo=Bryan"))
+                .timeout(Duration.ofMillis(CLIENT_TIMEOUT_MILLIS))
+                .build();
+
+        AtomicLong ok = new AtomicLong();
+        AtomicLong shed = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        AtomicInteger outstanding = new AtomicInteger();
+        long[] latencies = new long[rate * seconds];
+        AtomicInteger latencyCount = new AtomicInteger();
+
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        int total = rate * seconds;
+        for (int i = 0; i < total; i++) {
+            long due = start + i * interval;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            long sent = System.nanoTime();
+            outstanding.incrementAndGet();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                if (error != null) {
+                    failed.incrementAndGet();
+                } else if (response.statusCode() == 503) {
+                    shed.incrementAndGet();
+                } else {
+                    ok.incrementAndGet();
+                    latencies[latencyCount.getAndIncrement()] = System.nanoTime() - sent;
+                }
+                outstanding.decrementAndGet();
+            });
+        }
+        while (outstanding.get() > 0) {
+            Thread.sleep(10);
+        }
+
+        long[] sorted = Arrays.copyOf(latencies, latencyCount.get());
+        Arrays.sort(sorted);
+        System.out.printf("%-9s goodput %5.1f req/s  ok %6d  shed %6d  timed out %6d  p50 %6.1fms  p99 %6.1fms%n",
+                limited ? "limited" : "unlimited", ok.get() / (double) seconds, ok.get(), shed.get(), failed.get(),
+                sorted.length == 0 ? 0 : sorted[sorted.length / 2] / 1e6,
+                sorted.length == 0 ? 0 : sorted[(int) (sorted.length * 0.99)] / 1e6);
+        if (limiter != null) {
+            System.out.printf("          final limit %d, %d limit changes%n", limiter.getLimit(),
+                    limiter.getLimitChanges());
+        }
+        server.stop(0);
+        serverThreads.shutdownNow();
+        tracer.close();
+    }
+
+    private static void respond(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+}
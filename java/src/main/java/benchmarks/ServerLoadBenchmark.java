@@ -0,0 +1,120 @@
+package benchmarks;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Closed-loop load generator for the lesson04 servers: keeps a fixed number of requests in flight, each on its own
+ * connection, and reports throughput, latency, requests rejected with 503 and the server's heap and thread count,
+ * read from the Dropwizard admin port. Rejected requests are retried immediately, as the load generator does not
+ * back off. Compare the default blocking servers against {@code SERVER_MODE=async}, e.g.
+ *
+ * <pre>
+ * SERVER_MODE=async ./run.sh lesson04.solution.Formatter server
+ * ./run.sh benchmarks.ServerLoadBenchmark 8081 format?helloTo=Bryan 10000 30
+ * </pre>
+ *
+ * The JDK HTTP client is used because it is non-blocking, so the load generator itself does not need a thread per
+ * connection. Raise {@code ulimit -n} on both sides before running with thousands of connections.
+ */
+public class ServerLoadBenchmark {
+    private static final Pattern GAUGE = Pattern.compile("\"(jvm\\.memory\\.heap\\.used|jvm\\.threads\\.count)\""
+            + "\\s*:\\s*\\{\\s*\"value\"\\s*:\\s*(\\d+)");
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Expecting port, path and optionally concurrency and seconds");
+        }
+        int port = Integer.parseInt(args[0]);
+        URI uri = URI.create("http://localhost:" + port + "/" + args[1]);
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(60)).build();
+
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        AtomicLong completed = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        AtomicInteger inFlight = new AtomicInteger(concurrency);
+        long[] latencies = new long[1 << 20];
+        AtomicInteger latencyCount = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+
+        class Loop {
+            void next() {
+                if (System.nanoTime() > deadline) {
+                    if (inFlight.decrementAndGet() == 0) {
+                        done.countDown();
+                    }
+                    return;
+                }
+                long start = System.nanoTime();
+                client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                    if (error == null && response.statusCode() == 503) {
+                        rejected.incrementAndGet();
+                    } else if (error != null || response.statusCode() != 200) {
+                        errors.incrementAndGet();
+                    } else {
+                        completed.incrementAndGet();
+                        int i = latencyCount.getAndIncrement();
+                        if (i < latencies.length) {
+                            latencies[i] = System.nanoTime() - start;
+                        }
+                    }
+                    next();
+                });
+            }
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < concurrency; i++) {
+            new Loop().next();
+        }
+        Thread.sleep(seconds * 1000L / 2);
+        String serverStats = serverStats(client, port + 1000);
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        int n = Math.min(latencyCount.get(), latencies.length);
+        long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+        System.out.printf("%d connections: %d ok, %d rejected (503), %d errors, %.0f req/sec%n", concurrency,
+                completed.get(), rejected.get(), errors.get(), completed.get() * 1e9 / elapsed);
+        if (n > 0) {
+            System.out.printf("latency ms: p50=%.1f p99=%.1f max=%.1f%n", sorted[n / 2] / 1e6,
+                    sorted[(int) (n * 0.99)] / 1e6, sorted[n - 1] / 1e6);
+        }
+        System.out.println("server under load: " + serverStats);
+    }
+
+    private static String serverStats(HttpClient client, int adminPort) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + adminPort + "/metrics"))
+                    .timeout(Duration.ofSeconds(10))
+                    .build();
+            String body = client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+            StringBuilder sb = new StringBuilder();
+            Matcher m = GAUGE.matcher(body);
+            while (m.find()) {
+                sb.append(m.group(1)).append('=').append(m.group(2)).append(' ');
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            return "unavailable (" + e + ")";
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.NoopReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.propagation.Format;
+import io.opentracing.propagation.TextMapAdapter;
+import io.opentracing.tag.Tags;
+import lib.Tracing;
+
+/**
+ * Compares the cost of starting and finishing a server span, in ns/op and bytes allocated per op: with
+ * {@code buildSpan} and no parent, with {@link Tracing#startServerSpan}, which reads the request headers in place,
+ * and with the previous extraction that copied the headers into a map first. The headers are those of a lesson04
+ * request with its trace context, but without a deadline, so that the two server spans differ only in extraction.
+ */
+public class ServerSpanBenchmark {
+    private static volatile Span sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        JaegerTracer tracer = new JaegerTracer.Builder("formatter")
+                .withSampler(new ConstSampler(true))
+                .withReporter(new NoopReporter())
+                .build();
+        HttpHeaders headers = requestHeaders(tracer);
+
+        for (int round = 0; round < 3; round++) {
+            run("buildSpan", iterations, () -> {
+                Span span = tracer.buildSpan("format").withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER)
+                        .start();
+                span.finish();
+                sink = span;
+            });
+            run("copy headers", iterations, () -> {
+                Span span = startWithCopiedHeaders(tracer, headers, "format");
+                span.finish();
+                sink = span;
+            });
+            run("server span", iterations, () -> {
+                Span span = Tracing.startServerSpan(tracer, headers, "format");
+                span.finish();
+                sink = span;
+            });
+        }
+        tracer.close();
+    }
+
+    /**
+     * The extraction {@link Tracing#startServerSpan} did before it read the headers in place.
+     */
+    private static Span startWithCopiedHeaders(Tracer tracer, HttpHeaders httpHeaders, String operationName) {
+        MultivaluedMap<String, String> rawHeaders = httpHeaders.getRequestHeaders();
+        HashMap<String, String> headers = new HashMap<String, String>();
+        for (String key : rawHeaders.keySet()) {
+            headers.put(key, rawHeaders.get(key).get(0));
+        }
+        Tracer.SpanBuilder spanBuilder = tracer.buildSpan(operationName);
+        SpanContext parent = tracer.extract(Format.Builtin.HTTP_HEADERS, new TextMapAdapter(headers));
+        if (parent != null) {
+            spanBuilder = spanBuilder.asChildOf(parent);
+        }
+        return spanBuilder.withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER).start();
+    }
+
+    private static HttpHeaders requestHeaders(Tracer tracer) {
+        MultivaluedMap<String, String> headers = new MultivaluedHashMap<String, String>();
+        headers.putSingle("Host", "localhost:8081");
+        headers.putSingle("Connection", "Keep-Alive");
+        headers.putSingle("Accept-Encoding", "gzip");
+        headers.putSingle("User-Agent", "okhttp/4.9.1");
+        Span parent = tracer.buildSpan("formatString").start();
+        Map<String, String> injected = new HashMap<String, String>();
+        tracer.inject(parent.context(), Format.Builtin.HTTP_HEADERS, new TextMapAdapter(injected));
+        for (Map.Entry<String, String> header : injected.entrySet()) {
+            headers.putSingle(header.getKey(), header.getValue());
+        }
+        return new RequestHeaders(headers);
+    }
+
+    private static void run(String name, int iterations, Runnable op) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            op.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+        System.out.printf("%-12s %6.1f ns/op %6.0f bytes/op%n", name, (double) elapsed / iterations,
+                (double) allocated / iterations);
+    }
+
+    /**
+     * The request headers as Jersey exposes them to a resource, without the rest of a request.
+     */
+    private static final class RequestHeaders implements HttpHeaders {
+        private final MultivaluedMap<String, String> headers;
+
+        RequestHeaders(MultivaluedMap<String, String> headers) {
+            this.headers = headers;
+        }
+
+        @Override
+        public List<String> getRequestHeader(String name) {
+            return headers.get(name);
+        }
+
+        @Override
+        public String getHeaderString(String name) {
+            List<String> values = headers.get(name);
+            return values == null ? null : String.join(",", values);
+        }
+
+        @Override
+        public MultivaluedMap<String, String> getRequestHeaders() {
+            return headers;
+        }
+
+        @Override
+        public List<MediaType> getAcceptableMediaTypes() {
+            return Collections.singletonList(MediaType.WILDCARD_TYPE);
+        }
+
+        @Override
+        public List<Locale> getAcceptableLanguages() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public MediaType getMediaType() {
+            return null;
+        }
+
+        @Override
+        public Locale getLanguage() {
+            return null;
+        }
+
+        @Override
+        public Map<String, Cookie> getCookies() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Date getDate() {
+            return null;
+        }
+
+        @Override
+        public int getLength() {
+            return -1;
+        }
+    }
+}
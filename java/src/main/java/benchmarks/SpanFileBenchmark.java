@@ -0,0 +1,87 @@
+package benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.opentracing.Span;
+import io.opentracing.tag.Tags;
+import lib.SpanFileReader;
+import lib.SpanFileReporter;
+import lib.SpanRecord;
+
+/**
+ * Measures write throughput and size on disk of {@link SpanFileReporter} for traces shaped like lesson04, and the
+ * read throughput of {@link SpanFileReader}.
+ */
+public class SpanFileBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int traces = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        Path dir = Files.createTempDirectory("spans");
+
+        SpanFileReporter reporter = new SpanFileReporter(dir, "bench");
+        JaegerTracer tracer = new JaegerTracer.Builder("hello-world")
+                .withSampler(new ConstSampler(true))
+                .withReporter(reporter)
+                .build();
+
+        // warm up the JIT, warm-up spans are excluded from the write numbers but included in the reads
+        writeTraces(tracer, traces / 10);
+        reporter.flush();
+
+        long spansBefore = reporter.getSpansWritten();
+        long bytesBefore = reporter.getBytesWritten();
+        long start = System.nanoTime();
+        writeTraces(tracer, traces);
+        tracer.close();
+        long elapsed = System.nanoTime() - start;
+
+        long spans = reporter.getSpansWritten() - spansBefore;
+        long bytes = reporter.getBytesWritten() - bytesBefore;
+        System.out.printf("write: %d spans in %d ms, %.0f spans/sec, %.1f bytes/span, %d dropped%n",
+                spans, elapsed / 1_000_000, spans * 1e9 / elapsed, (double) bytes / spans, reporter.getSpansDropped());
+
+        start = System.nanoTime();
+        long read;
+        try (Stream<SpanRecord> stream = new SpanFileReader().stream(dir)) {
+            read = stream.count();
+        }
+        elapsed = System.nanoTime() - start;
+        System.out.printf("read: %d spans in %d ms, %.0f spans/sec%n", read, elapsed / 1_000_000, read * 1e9 / elapsed);
+
+        start = System.nanoTime();
+        long matched;
+        try (Stream<SpanRecord> stream = new SpanFileReader().withOperation("format").stream(dir)) {
+            matched = stream.count();
+        }
+        elapsed = System.nanoTime() - start;
+        System.out.printf("filter: %d 'format' spans in %d ms%n", matched, elapsed / 1_000_000);
+    }
+
+    private static void writeTraces(JaegerTracer tracer, int traces) {
+        for (int i = 0; i < traces; i++) {
+            Span root = tracer.buildSpan("say-hello").withTag("hello-to", "Bryan" + (i % 100)).start();
+            root.setBaggageItem("greeting", "Bonjour");
+            clientServer(tracer, root, "formatString", "format", "http://localhost:8081/format?helloTo=Bryan");
+            clientServer(tracer, root, "printHello", "publish", "http://localhost:8082/publish?helloStr=hi");
+            root.finish();
+        }
+    }
+
+    private static void clientServer(JaegerTracer tracer, Span parent, String clientOp, String serverOp, String url) {
+        Span client = tracer.buildSpan(clientOp).asChildOf(parent)
+                .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
+                .withTag(Tags.HTTP_METHOD.getKey(), "GET")
+                .withTag(Tags.HTTP_URL.getKey(), url)
+                .start();
+        Span server = tracer.buildSpan(serverOp).asChildOf(client)
+                .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER)
+                .start();
+        server.finish();
+        Tags.HTTP_STATUS.set(client, 200);
+        client.finish();
+    }
+}
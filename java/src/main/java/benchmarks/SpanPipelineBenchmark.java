@@ -0,0 +1,129 @@
+package benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.ImmutableMap;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.jaegertracing.spi.Reporter;
+import io.opentracing.Span;
+import io.opentracing.tag.Tags;
+import lib.SpanFileReporter;
+import lib.SpanPipeline;
+import lib.SpanProcessor;
+
+/**
+ * Time spent in {@code span.finish()} on the request thread when spans are enriched, redacted, filtered and
+ * exported to a {@link SpanFileReporter} and a counting reporter, either inline in the reporter or with a
+ * {@link SpanPipeline}. Also reports how many spans the pipeline exported and dropped.
+ */
+public class SpanPipelineBenchmark {
+    private static final List<SpanProcessor> PROCESSORS = Arrays.asList(
+            SpanProcessor.dropOperations(Collections.singleton("health-check")),
+            SpanProcessor.enrich(ImmutableMap.of("env", "bench", "region", "local")),
+            SpanProcessor.redact(Collections.singleton(Tags.HTTP_URL.getKey())));
+
+    public static void main(String[] args) throws Exception {
+        int spans = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path dir = Files.createTempDirectory("spans");
+        for (int round = 0; round < 3; round++) {
+            inline(dir, spans);
+            pipeline(dir, spans);
+        }
+    }
+
+    private static void inline(Path dir, int spans) {
+        Counting counting = new Counting();
+        SpanFileReporter file = new SpanFileReporter(dir, "inline");
+        Reporter reporter = new Reporter() {
+            @Override
+            public void report(JaegerSpan span) {
+                List<JaegerSpan> batch = new ArrayList<JaegerSpan>(1);
+                batch.add(span);
+                for (SpanProcessor processor : PROCESSORS) {
+                    processor.process(batch);
+                }
+                for (JaegerSpan processed : batch) {
+                    file.report(processed);
+                    counting.report(processed);
+                }
+            }
+
+            @Override
+            public void close() {
+                file.close();
+            }
+        };
+        long[] finish = run(reporter, spans);
+        reporter.close();
+        print("inline", finish, counting.count.get(), 0);
+    }
+
+    private static void pipeline(Path dir, int spans) {
+        Counting counting = new Counting();
+        SpanPipeline.Builder builder = SpanPipeline.builder();
+        for (int i = 0; i < PROCESSORS.size(); i++) {
+            builder.process("p" + i, PROCESSORS.get(i));
+        }
+        SpanPipeline pipeline = builder
+                .exportTo("file", new SpanFileReporter(dir, "pipeline"))
+                .exportTo("counting", counting)
+                .build()
+                .start();
+        long[] finish = run(pipeline, spans);
+        pipeline.flush();
+        pipeline.close();
+        print("pipeline", finish, counting.count.get(), pipeline.getDropped());
+    }
+
+    private static long[] run(Reporter reporter, int spans) {
+        JaegerTracer tracer = new JaegerTracer.Builder("formatter")
+                .withSampler(new ConstSampler(true))
+                .withReporter(reporter)
+                .build();
+        long[] finish = new long[spans];
+        for (int i = 0; i < spans; i++) {
+            Span span = tracer.buildSpan(i % 10 == 0 ? "health-check" : "format")
+                    .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER)
+                    .withTag(Tags.HTTP_URL.getKey(), "http://localhost:8081/format?helloTo=Bryan")
+                    .start();
+            long start = System.nanoTime();
+            span.finish();
+            finish[i] = System.nanoTime() - start;
+        }
+        return finish;
+    }
+
+    private static void print(String name, long[] finish, long exported, long dropped) {
+        long total = 0;
+        for (long nanos : finish) {
+            total += nanos;
+        }
+        long[] sorted = finish.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-8s finish mean %6.0f ns  p99 %7d ns  p99.9 %8d ns  exported %8d  dropped %8d%n", name,
+                (double) total / finish.length, sorted[(int) (sorted.length * 0.99)],
+                sorted[(int) (sorted.length * 0.999)], exported, dropped);
+    }
+
+    private static final class Counting implements Reporter {
+        final AtomicLong count = new AtomicLong();
+
+        @Override
+        public void report(JaegerSpan span) {
+            count.incrementAndGet();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package benchmarks;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.NoopReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.opentracing.Scope;
+import io.opentracing.ScopeManager;
+import io.opentracing.Span;
+import io.opentracing.util.ThreadLocalScopeManager;
+import lib.SpanProfiler;
+
+/**
+ * Throughput of CPU-bound requests, each in its own active span, with and without a {@link SpanProfiler} sampling
+ * the request threads, and the overhead the profiler charged against its budget. Each request hashes a few
+ * kilobytes, which takes tens of microseconds, so the per-scope cost of the profiler is included as well as the cost
+ * of sampling.
+ */
+public class SpanProfilerBenchmark {
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        long[] intervalsMicros = { 10_000, 1_000 };
+        double[][] overheads = new double[intervalsMicros.length][rounds];
+        SpanProfiler last = null;
+        for (int round = 0; round < rounds; round++) {
+            double base = run("off", null, threads, seconds);
+            for (int i = 0; i < intervalsMicros.length; i++) {
+                SpanProfiler profiler = new SpanProfiler(intervalsMicros[i], 10_000, TimeUnit.MICROSECONDS, 0.01, 64);
+                double throughput = run("every " + intervalsMicros[i] / 1000 + "ms", profiler, threads, seconds);
+                overheads[i][round] = 1 - throughput / base;
+                System.out.printf("    charged overhead %.2f%%, %d samples%n", 100 * profiler.getOverhead(),
+                        profiler.getSamples());
+                profiler.close();
+                last = profiler;
+            }
+        }
+        // alternating runs on a busy machine are noisy, the median ratio is more stable than any single run
+        for (int i = 0; i < intervalsMicros.length; i++) {
+            Arrays.sort(overheads[i]);
+            System.out.printf("every %2dms: median throughput overhead %.1f%%%n", intervalsMicros[i] / 1000,
+                    100 * overheads[i][rounds / 2]);
+        }
+        printTopStacks(last);
+    }
+
+    private static double run(String name, SpanProfiler profiler, int threads, int seconds) throws Exception {
+        ScopeManager scopeManager = new ThreadLocalScopeManager();
+        if (profiler != null) {
+            scopeManager = profiler.scopeManager(scopeManager);
+        }
+        JaegerTracer tracer = new JaegerTracer.Builder("formatter")
+                .withSampler(new ConstSampler(true))
+                .withReporter(new NoopReporter())
+                .withScopeManager(scopeManager)
+                .build();
+        AtomicLong requests = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                    byte[] payload = new byte[4096];
+                    long count = 0;
+                    while (System.nanoTime() < deadline) {
+                        Span span = tracer.buildSpan("format").start();
+                        try (Scope scope = tracer.scopeManager().activate(span)) {
+                            for (int i = 0; i < 4; i++) {
+                                digest.update(payload);
+                            }
+                            sink = digest.digest();
+                        } finally {
+                            span.finish();
+                        }
+                        count++;
+                    }
+                    requests.addAndGet(count);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double throughput = requests.get() / (double) seconds;
+        System.out.printf("%-12s %10.0f req/s%n", name, throughput);
+        return throughput;
+    }
+
+    private static void printTopStacks(SpanProfiler profiler) {
+        StringWriter folded = new StringWriter();
+        profiler.writeFoldedStacks("format", new PrintWriter(folded));
+        String[] lines = folded.toString().split("\n");
+        Arrays.sort(lines, (a, b) -> Long.compare(count(b), count(a)));
+        System.out.println("top sampled stacks of 'format':");
+        for (int i = 0; i < Math.min(3, lines.length); i++) {
+            String line = lines[i];
+            // print only the innermost frames of the folded stack
+            int cut = line.lastIndexOf(';', line.lastIndexOf(';', line.lastIndexOf(';') - 1) - 1);
+            System.out.println("    ..." + line.substring(cut));
+        }
+    }
+
+    private static long count(String foldedLine) {
+        return Long.parseLong(foldedLine.substring(foldedLine.lastIndexOf(' ') + 1).trim());
+    }
+}
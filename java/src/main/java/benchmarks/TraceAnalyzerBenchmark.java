@@ -0,0 +1,82 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import io.opentracing.tag.Tags;
+import lib.SpanRecord;
+import lib.TraceAnalysis;
+import lib.TraceAssembler;
+import lib.TraceAnalyzer;
+
+/**
+ * Streams synthetic lesson04 traces, with spans of concurrent traces interleaved, through {@link TraceAssembler}
+ * and {@link TraceAnalyzer}, and reports the analysis throughput.
+ */
+public class TraceAnalyzerBenchmark {
+
+    public static void main(String[] args) {
+        int traces = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Random random = new Random(1);
+
+        TraceAnalysis example = TraceAnalysis.of(trace(random, 0, 0));
+        System.out.println("critical path: " + example.getCriticalPath());
+        System.out.println("hops: " + example.getHops());
+
+        TraceAnalyzer analyzer = new TraceAnalyzer();
+        TraceAssembler assembler = new TraceAssembler(10_000, 100_000, analyzer);
+        List<SpanRecord> window = new ArrayList<SpanRecord>();
+        long start = System.nanoTime();
+        for (int i = 0; i < traces; i++) {
+            // a new trace every 100us, spans of the last 64 traces arrive shuffled
+            window.addAll(trace(random, i, i * 100L));
+            if (window.size() >= 64 * 5) {
+                Collections.shuffle(window, random);
+                window.forEach(assembler);
+                window.clear();
+            }
+        }
+        window.forEach(assembler);
+        assembler.flush();
+        long elapsed = System.nanoTime() - start;
+
+        System.out.print(analyzer.report());
+        System.out.printf("%d traces in %d ms, %.0f traces/sec, %.0f spans/sec%n", analyzer.getTraces(),
+                elapsed / 1_000_000, analyzer.getTraces() * 1e9 / elapsed, analyzer.getTraces() * 5e9 / elapsed);
+    }
+
+    private static List<SpanRecord> trace(Random random, long traceId, long t0) {
+        long formatNetwork = 20 + random.nextInt(40);
+        long formatServer = 100 + random.nextInt(400);
+        long publishNetwork = 20 + random.nextInt(200);
+        long publishServer = 100 + random.nextInt(100);
+
+        long formatStart = t0 + 10;
+        long formatEnd = formatStart + formatNetwork * 2 + formatServer;
+        long printStart = formatEnd + 5;
+        long printEnd = printStart + publishNetwork * 2 + publishServer;
+
+        List<SpanRecord> spans = new ArrayList<SpanRecord>(5);
+        spans.add(span(traceId, 1, 0, "hello-world", "say-hello", null, t0, printEnd + 10));
+        spans.add(span(traceId, 2, 1, "hello-world", "formatString", Tags.SPAN_KIND_CLIENT, formatStart, formatEnd));
+        spans.add(span(traceId, 3, 2, "formatter", "format", Tags.SPAN_KIND_SERVER, formatStart + formatNetwork,
+                formatEnd - formatNetwork));
+        spans.add(span(traceId, 4, 1, "hello-world", "printHello", Tags.SPAN_KIND_CLIENT, printStart, printEnd));
+        spans.add(span(traceId, 5, 4, "publisher", "publish", Tags.SPAN_KIND_SERVER, printStart + publishNetwork,
+                printEnd - publishNetwork));
+        return spans;
+    }
+
+    private static SpanRecord span(long traceId, long spanId, long parentId, String service, String operation,
+            String kind, long start, long end) {
+        Map<String, Object> tags = new HashMap<String, Object>();
+        if (kind != null) {
+            tags.put(Tags.SPAN_KIND.getKey(), kind);
+        }
+        return new SpanRecord(0, traceId, spanId, parentId, service, operation, start, end - start, tags);
+    }
+}
@@ -1,5 +1,11 @@
 package lesson04.solution;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
@@ -8,6 +14,7 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 
+import com.codahale.metrics.Gauge;
 import com.google.common.collect.ImmutableMap;
 
 import io.dropwizard.Application;
@@ -16,14 +23,30 @@ import io.dropwizard.setup.Environment;
 import io.opentracing.Scope;
 import io.opentracing.Span;
 import io.opentracing.Tracer;
+import lib.ConcurrencyLimiter;
+import lib.LoadSheddingFilter;
+import lib.RejectedExecutionMapper;
+import lib.SpanPipeline;
+import lib.SpanProfiler;
+import lib.SpanProfilerTask;
+import lib.TinyLfuCache;
 import lib.Tracing;
 
 public class Formatter extends Application<Configuration> {
 
     private final Tracer tracer;
+    private final ConcurrencyLimiter limiter;
+    private final SpanPipeline pipeline;
+    private final SpanProfiler profiler;
+    private final TinyLfuCache<String, String> cache;
 
-    private Formatter(Tracer tracer) {
+    private Formatter(Tracer tracer, ConcurrencyLimiter limiter, SpanPipeline pipeline, SpanProfiler profiler,
+            int cacheSize) {
         this.tracer = tracer;
+        this.limiter = limiter;
+        this.pipeline = pipeline;
+        this.profiler = profiler;
+        this.cache = cacheSize == 0 ? null : new TinyLfuCache<String, String>(cacheSize, 10, TimeUnit.MINUTES);
     }
 
     @Path("/format")
@@ -34,27 +57,108 @@ public class Formatter extends Application<Configuration> {
         public String format(@QueryParam("helloTo") String helloTo, @Context HttpHeaders httpHeaders) {
             Span span = Tracing.startServerSpan(tracer, httpHeaders, "format");
             try (Scope scope = tracer.scopeManager().activate(span)) {
-                String greeting = span.getBaggageItem("greeting");
-                if (greeting == null) {
-                    greeting = "Hello";
-                }
-                String helloStr = String.format("%s, %s!", greeting, helloTo);
-                span.log(ImmutableMap.of("event", "string-format", "value", helloStr));
-                return helloStr;
+                return formatGreeting(span, helloTo);
             } finally {
                 span.finish();
             }
         }
     }
 
+    /**
+     * Same endpoint as {@link FormatterResource}, but the request thread is released while the response is
+     * computed on a separate executor. The server span is activated on the executor thread and finished when the
+     * response completes.
+     */
+    @Path("/format")
+    @Produces(MediaType.TEXT_PLAIN)
+    public class AsyncFormatterResource {
+        private final ExecutorService executor;
+
+        AsyncFormatterResource(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        @GET
+        public CompletionStage<String> format(@QueryParam("helloTo") String helloTo,
+                @Context HttpHeaders httpHeaders) {
+            Span span = Tracing.startServerSpan(tracer, httpHeaders, "format");
+            return Tracing.supplyAsync(tracer, span, () -> formatGreeting(span, helloTo), executor);
+        }
+    }
+
+    private String formatGreeting(Span span, String helloTo) {
+        String greeting = span.getBaggageItem("greeting");
+        if (greeting == null) {
+            greeting = "Hello";
+        }
+        if (cache == null) {
+            String helloStr = String.format("%s, %s!", greeting, helloTo);
+            span.log(ImmutableMap.of("event", "string-format", "value", helloStr));
+            return helloStr;
+        }
+        String key = greeting + '\n' + helloTo;
+        String helloStr = cache.get(key);
+        span.setTag("cache.hit", helloStr != null);
+        if (helloStr == null) {
+            helloStr = String.format("%s, %s!", greeting, helloTo);
+            cache.put(key, helloStr);
+        }
+        span.log(ImmutableMap.of("event", "string-format", "value", helloStr));
+        return helloStr;
+    }
+
     @Override
     public void run(Configuration configuration, Environment environment) throws Exception {
-        environment.jersey().register(new FormatterResource());
+        pipeline.registerMetrics(environment.metrics(), "formatter.spans");
+        if (profiler != null) {
+            profiler.registerMetrics(environment.metrics(), "formatter.profiler");
+            environment.admin().addTask(new SpanProfilerTask(profiler));
+        }
+        if (limiter != null) {
+            environment.jersey().register(new LoadSheddingFilter(tracer, limiter, "format"));
+            limiter.registerMetrics(environment.metrics(), "formatter.limiter");
+        }
+        if (cache != null) {
+            environment.metrics().register("formatter.cache.hit-ratio", (Gauge<Double>) cache::getHitRatio);
+            environment.metrics().register("formatter.cache.hits", (Gauge<Long>) cache::getHits);
+            environment.metrics().register("formatter.cache.misses", (Gauge<Long>) cache::getMisses);
+            environment.metrics().register("formatter.cache.evictions", (Gauge<Long>) cache::getEvictions);
+            environment.metrics().register("formatter.cache.rejections", (Gauge<Long>) cache::getRejections);
+            environment.metrics().register("formatter.cache.expirations", (Gauge<Long>) cache::getExpirations);
+            environment.metrics().register("formatter.cache.size", (Gauge<Integer>) cache::size);
+        }
+        if ("async".equals(System.getenv("SERVER_MODE"))) {
+            // bound the queue like Jetty's request queue (server.maxQueuedRequests), so that a burst of requests
+            // is rejected with 503 rather than piling up in memory
+            ExecutorService executor = environment.lifecycle().executorService("formatter-%d")
+                    .minThreads(Runtime.getRuntime().availableProcessors())
+                    .maxThreads(Runtime.getRuntime().availableProcessors())
+                    .workQueue(new ArrayBlockingQueue<Runnable>(1024))
+                    .rejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy())
+                    .build();
+            environment.jersey().register(new RejectedExecutionMapper());
+            environment.jersey().register(new AsyncFormatterResource(executor));
+        } else {
+            environment.jersey().register(new FormatterResource());
+        }
     }
 
     public static void main(String[] args) throws Exception {
         System.setProperty("dw.server.applicationConnectors[0].port", "8081");
         System.setProperty("dw.server.adminConnectors[0].port", "9081");
-        new Formatter(Tracing.init("formatter")).run(args);
+        // FORMAT_CACHE_SIZE enables caching formatted greetings; formatting is cheaper than a cache lookup, so this
+        // only pays off if producing the greeting becomes expensive
+        String cacheSizeEnv = System.getenv("FORMAT_CACHE_SIZE");
+        int cacheSize = cacheSizeEnv == null ? 0 : Integer.parseInt(cacheSizeEnv);
+        if (cacheSizeEnv != null && cacheSize < 2) {
+            throw new IllegalArgumentException("FORMAT_CACHE_SIZE must be at least 2, was " + cacheSize);
+        }
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.fromEnv();
+        // finished spans are processed and exported off the request threads, see lib.SpanPipeline
+        SpanPipeline pipeline = SpanPipeline.fromEnv();
+        // PROFILER_INTERVAL_MS enables sampling the stacks of threads with an active span
+        SpanProfiler profiler = SpanProfiler.fromEnv();
+        Tracer tracer = Tracing.init("formatter", pipeline, profiler, limiter);
+        new Formatter(tracer, limiter, pipeline, profiler, cacheSize).run(args);
     }
 }
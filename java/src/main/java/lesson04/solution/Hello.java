@@ -1,5 +1,9 @@
 package lesson04.solution;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
 import com.google.common.collect.ImmutableMap;
 
 import io.opentracing.Scope;
@@ -8,6 +12,10 @@ import io.opentracing.Tracer;
 import io.opentracing.log.Fields;
 import io.opentracing.propagation.Format;
 import io.opentracing.tag.Tags;
+import lib.Deadline;
+import lib.FanOut;
+import lib.HedgingClient;
+import lib.TinyLfuCache;
 import lib.Tracing;
 import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
@@ -16,15 +24,27 @@ import okhttp3.Response;
 
 public class Hello {
 
+    private static final long DEADLINE_MILLIS = 5000;
+
     private final Tracer tracer;
-    private final OkHttpClient client;
+    private final HedgingClient formatClient;
+    private final HedgingClient publishClient;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final TinyLfuCache<String, String> formatCache = new TinyLfuCache<String, String>(1000, 1,
+            TimeUnit.MINUTES);
 
     private Hello(Tracer tracer) {
         this.tracer = tracer;
-        this.client = new OkHttpClient();
+        OkHttpClient client = new OkHttpClient();
+        // HEDGE_REQUESTS=true re-sends a format request that is slower than the p95 latency of the formatter, or
+        // than HEDGE_DELAY_MS (default 100) before the p95 is known; publishing is not idempotent, so never hedged
+        String hedgeDelay = System.getenv("HEDGE_DELAY_MS");
+        this.formatClient = new HedgingClient(client, Boolean.parseBoolean(System.getenv("HEDGE_REQUESTS")),
+                hedgeDelay == null ? 100 : Long.parseLong(hedgeDelay));
+        this.publishClient = new HedgingClient(client, false);
     }
 
-    private String getHttp(int port, String path, String param, String value) {
+    private String getHttp(HedgingClient client, int port, String path, String param, String value) {
         try {
             HttpUrl url = new HttpUrl.Builder().scheme("http").host("localhost").port(port).addPathSegment(path)
                     .addQueryParameter(param, value).build();
@@ -35,9 +55,10 @@ public class Hello {
             Tags.HTTP_METHOD.set(activeSpan, "GET");
             Tags.HTTP_URL.set(activeSpan, url.toString());
             tracer.inject(activeSpan.context(), Format.Builtin.HTTP_HEADERS, Tracing.requestBuilderCarrier(requestBuilder));
+            Deadline.inject(activeSpan, requestBuilder);
 
             Request request = requestBuilder.build();
-            Response response = client.newCall(request).execute();
+            Response response = client.execute(request, activeSpan);
 
             Tags.HTTP_STATUS.set(activeSpan, response.code());
             if (response.code() != 200) {
@@ -56,18 +77,49 @@ public class Hello {
         try (Scope scope = tracer.scopeManager().activate(span)) {
             span.setTag("hello-to", helloTo);
             span.setBaggageItem("greeting", greeting);
+            Deadline.set(span, DEADLINE_MILLIS);
 
-            String helloStr = formatString(helloTo);
-            printHello(helloStr);
+            String[] names = helloTo.split(",");
+            if (names.length == 1) {
+                printHello(formatString(helloTo));
+            } else {
+                greetAll(names);
+            }
         } finally {
             span.finish();
         }
     }
 
+    /**
+     * Formats and prints the greetings for several names concurrently. The first failure cancels the others.
+     */
+    private void greetAll(String[] names) {
+        try (FanOut fanOut = FanOut.of(tracer, executor)) {
+            for (String name : names) {
+                fanOut.fork("greet", () -> {
+                    tracer.activeSpan().setTag("hello-to", name);
+                    printHello(formatString(name));
+                    return null;
+                });
+            }
+            fanOut.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
     private String formatString(String helloTo) {
         Span span = tracer.buildSpan("formatString").start();
         try (Scope scope = tracer.scopeManager().activate(span)) {
-            String helloStr = getHttp(8081, "format", "helloTo", helloTo);
+            // the formatter's answer depends on the greeting baggage too
+            String key = span.getBaggageItem("greeting") + '\n' + helloTo;
+            String helloStr = formatCache.get(key);
+            span.setTag("cache.hit", helloStr != null);
+            if (helloStr == null) {
+                helloStr = getHttp(formatClient, 8081, "format", "helloTo", helloTo);
+                formatCache.put(key, helloStr);
+            }
             span.log(ImmutableMap.of("event", "string-format", "value", helloStr));
             return helloStr;
         } finally {
@@ -78,7 +130,7 @@ public class Hello {
     private void printHello(String helloStr) {
         Span span = tracer.buildSpan("printHello").start();
         try (Scope scope = tracer.scopeManager().activate(span)) {
-            getHttp(8082, "publish", "helloStr", helloStr);
+            getHttp(publishClient, 8082, "publish", "helloStr", helloStr);
             span.log(ImmutableMap.of("event", "println"));
         } finally {
             span.finish();
@@ -92,7 +144,12 @@ public class Hello {
         String helloTo = args[0];
         String greeting = args[1];
         try (Tracer tracer = Tracing.init("hello-world")) {
-            new Hello(tracer).sayHello(helloTo, greeting);
+            Hello hello = new Hello(tracer);
+            try {
+                hello.sayHello(helloTo, greeting);
+            } finally {
+                hello.executor.shutdown();
+            }
         }
     }
 }
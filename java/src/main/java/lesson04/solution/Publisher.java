@@ -1,5 +1,10 @@
 package lesson04.solution;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
@@ -8,6 +13,9 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.google.common.collect.ImmutableMap;
 
 import io.dropwizard.Application;
@@ -16,14 +24,29 @@ import io.dropwizard.setup.Environment;
 import io.opentracing.Scope;
 import io.opentracing.Span;
 import io.opentracing.Tracer;
+import lib.ConcurrencyLimiter;
+import lib.LoadSheddingFilter;
+import lib.RejectedExecutionMapper;
+import lib.SpanPipeline;
+import lib.SpanProfiler;
+import lib.SpanProfilerTask;
 import lib.Tracing;
 
 public class Publisher extends Application<Configuration> {
 
+    private static final Logger log = LoggerFactory.getLogger(Publisher.class);
+
     private final Tracer tracer;
+    private final ConcurrencyLimiter limiter;
+    private final SpanPipeline pipeline;
+    private final SpanProfiler profiler;
 
-    private Publisher(Tracer tracer) {
+    private Publisher(Tracer tracer, ConcurrencyLimiter limiter, SpanPipeline pipeline,
+            SpanProfiler profiler) {
         this.tracer = tracer;
+        this.limiter = limiter;
+        this.pipeline = pipeline;
+        this.profiler = profiler;
     }
 
     @Path("/publish")
@@ -34,23 +57,81 @@ public class Publisher extends Application<Configuration> {
         public String format(@QueryParam("helloStr") String helloStr, @Context HttpHeaders httpHeaders) {
             Span span = Tracing.startServerSpan(tracer, httpHeaders, "publish");
             try (Scope scope = tracer.scopeManager().activate(span)) {
-                System.out.println(helloStr);
-                span.log(ImmutableMap.of("event", "println", "value", helloStr));
-                return "published";
+                return publish(span, helloStr);
             } finally {
                 span.finish();
             }
         }
     }
 
+    /**
+     * Same endpoint as {@link PublisherResource}, but the request thread is released while the response is
+     * computed on a separate executor. The server span is activated on the executor thread and finished when the
+     * response completes.
+     */
+    @Path("/publish")
+    @Produces(MediaType.TEXT_PLAIN)
+    public class AsyncPublisherResource {
+        private final ExecutorService executor;
+
+        AsyncPublisherResource(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        @GET
+        public CompletionStage<String> format(@QueryParam("helloStr") String helloStr,
+                @Context HttpHeaders httpHeaders) {
+            Span span = Tracing.startServerSpan(tracer, httpHeaders, "publish");
+            return Tracing.supplyAsync(tracer, span, () -> publish(span, helloStr), executor);
+        }
+    }
+
+    private String publish(Span span, String helloStr) {
+        log.info("{}", helloStr);
+        span.log(ImmutableMap.of("event", "println", "value", helloStr));
+        return "published";
+    }
+
     @Override
     public void run(Configuration configuration, Environment environment) throws Exception {
-        environment.jersey().register(new PublisherResource());
+        pipeline.registerMetrics(environment.metrics(), "publisher.spans");
+        if (profiler != null) {
+            profiler.registerMetrics(environment.metrics(), "publisher.profiler");
+            environment.admin().addTask(new SpanProfilerTask(profiler));
+        }
+        if (limiter != null) {
+            environment.jersey().register(new LoadSheddingFilter(tracer, limiter, "publish"));
+            limiter.registerMetrics(environment.metrics(), "publisher.limiter");
+        }
+        if ("async".equals(System.getenv("SERVER_MODE"))) {
+            // bound the queue like Jetty's request queue (server.maxQueuedRequests), so that a burst of requests
+            // is rejected with 503 rather than piling up in memory
+            ExecutorService executor = environment.lifecycle().executorService("publisher-%d")
+                    .minThreads(Runtime.getRuntime().availableProcessors())
+                    .maxThreads(Runtime.getRuntime().availableProcessors())
+                    .workQueue(new ArrayBlockingQueue<Runnable>(1024))
+                    .rejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy())
+                    .build();
+            environment.jersey().register(new RejectedExecutionMapper());
+            environment.jersey().register(new AsyncPublisherResource(executor));
+        } else {
+            environment.jersey().register(new PublisherResource());
+        }
     }
 
     public static void main(String[] args) throws Exception {
         System.setProperty("dw.server.applicationConnectors[0].port", "8082");
         System.setProperty("dw.server.adminConnectors[0].port", "9082");
-        new Publisher(Tracing.init("publisher")).run(args);
+        // include the trace and span ids that lib.MdcScopeManager puts into the MDC
+        System.setProperty("dw.logging.appenders[0].type", "console");
+        System.setProperty("dw.logging.appenders[0].logFormat",
+                "%-5p [%d{ISO8601,UTC}] [trace=%X{traceId} span=%X{spanId}] %c: %m%n%rEx");
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.fromEnv();
+        // finished spans are processed and exported off the request threads, see lib.SpanPipeline
+        SpanPipeline pipeline = SpanPipeline.fromEnv();
+        // PROFILER_INTERVAL_MS enables sampling the stacks of threads with an active span
+        SpanProfiler profiler = SpanProfiler.fromEnv();
+        Tracer tracer = Tracing.init("publisher", pipeline, profiler, limiter);
+        new Publisher(tracer, limiter, pipeline, profiler).run(args);
     }
 }
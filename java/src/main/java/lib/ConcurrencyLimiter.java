@@ -0,0 +1,157 @@
+package lib;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.spi.Reporter;
+import io.opentracing.tag.Tags;
+
+/**
+ * An adaptive limit on the number of requests a server processes concurrently, in the style of the gradient
+ * algorithm of Netflix's concurrency-limits. While the latency of requests stays at its long-term average, the limit
+ * grows by a small queue allowance; once latency rises above it, i.e. requests start queueing for a saturated
+ * resource, the limit shrinks in proportion.
+ *
+ * Latencies are taken from the durations of finished server spans, so the limiter must be added as a reporter of
+ * the server's tracer with {@link Tracing#init(String, Reporter...)}, or
+ * {@link Tracing#init(String, SpanPipeline, Reporter...)}, which reports to it directly rather than through the
+ * pipeline. Only sampled spans are reported, and spans tagged as errors are ignored. Requests are admitted with
+ * {@link #tryAcquire()}, see {@link LoadSheddingFilter}.
+ */
+public final class ConcurrencyLimiter implements Reporter {
+    // how far latency may rise above its long-term average before the limit shrinks
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final int WARMUP_SAMPLES = 10;
+    private static final int LONG_WINDOW = 600;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    // written under the lock, read without it by tryAcquire
+    private volatile double limit;
+    private double longLatencyMicros;
+    private long samples;
+    private long limitChanges;
+
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("expecting 1 <= minLimit <= initialLimit <= maxLimit");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Returns a limiter with defaults suitable for the lesson servers, or null if load shedding is disabled with
+     * {@code LOAD_SHEDDING=false}.
+     */
+    public static ConcurrencyLimiter fromEnv() {
+        if ("false".equals(System.getenv("LOAD_SHEDDING"))) {
+            return null;
+        }
+        return new ConcurrencyLimiter(100, 20, 1000);
+    }
+
+    /**
+     * Admits a request if fewer than the current limit are in flight. Every admitted request must be followed by a
+     * call to {@link #release()}.
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                accepted.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    @Override
+    public void report(JaegerSpan span) {
+        Map<String, Object> tags = span.getTags();
+        if (!Tags.SPAN_KIND_SERVER.equals(tags.get(Tags.SPAN_KIND.getKey()))
+                || Boolean.TRUE.equals(tags.get(Tags.ERROR.getKey()))) {
+            return;
+        }
+        onLatency(span.getDuration());
+    }
+
+    synchronized void onLatency(long latencyMicros) {
+        samples++;
+        if (samples <= WARMUP_SAMPLES) {
+            longLatencyMicros += (latencyMicros - longLatencyMicros) / samples;
+            return;
+        }
+        longLatencyMicros += (latencyMicros - longLatencyMicros) / LONG_WINDOW;
+        // let the long-term average recover quickly after a sustained period of high latency
+        if (longLatencyMicros > 2 * latencyMicros) {
+            longLatencyMicros *= 0.95;
+        }
+        double current = limit;
+        if (inFlight.get() < current / 2) {
+            // far below the limit the latency says nothing about whether it could be higher
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longLatencyMicros / Math.max(latencyMicros, 1)));
+        double target = current * gradient + Math.sqrt(current);
+        double next = Math.max(minLimit, Math.min(maxLimit, current * (1 - SMOOTHING) + target * SMOOTHING));
+        if ((int) next != (int) current) {
+            limitChanges++;
+        }
+        limit = next;
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public synchronized long getLimitChanges() {
+        return limitChanges;
+    }
+
+    /**
+     * Registers gauges for the limit, in-flight requests, accepted and rejected requests and limit changes under
+     * the given prefix.
+     */
+    public void registerMetrics(MetricRegistry registry, String prefix) {
+        registry.register(prefix + ".limit", (Gauge<Integer>) this::getLimit);
+        registry.register(prefix + ".in-flight", (Gauge<Integer>) this::getInFlight);
+        registry.register(prefix + ".accepted", (Gauge<Long>) this::getAccepted);
+        registry.register(prefix + ".rejected", (Gauge<Long>) this::getRejected);
+        registry.register(prefix + ".limit-changes", (Gauge<Long>) this::getLimitChanges);
+    }
+
+    @Override
+    public void close() {
+    }
+}
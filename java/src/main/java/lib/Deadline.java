@@ -0,0 +1,113 @@
+package lib;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+
+import com.google.common.collect.ImmutableMap;
+
+import io.opentracing.Span;
+import io.opentracing.log.Fields;
+import io.opentracing.tag.Tags;
+import okhttp3.Request;
+
+/**
+ * Request deadlines that travel with the trace. Within a process the deadline is kept as an absolute local time in
+ * the {@link #BAGGAGE_KEY} baggage item, so child spans inherit it. Between processes it is sent as the remaining
+ * budget in the {@link #HEADER} header, because the clocks of the two hosts cannot be assumed to agree; the server
+ * converts it back into a local deadline in {@link Tracing#startServerSpan}.
+ */
+public final class Deadline {
+    public static final String HEADER = "X-Deadline-Ms";
+    public static final String BAGGAGE_KEY = "deadline";
+
+    private Deadline() {
+    }
+
+    /**
+     * Sets the deadline of the span to {@code timeoutMillis} from now, unless it already has an earlier one.
+     */
+    public static void set(Span span, long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        if (deadline < get(span)) {
+            span.setBaggageItem(BAGGAGE_KEY, Long.toString(deadline));
+        }
+    }
+
+    /**
+     * Returns the absolute deadline of the span in epoch milliseconds, or {@link Long#MAX_VALUE} if it has none.
+     */
+    public static long get(Span span) {
+        String deadline = span.getBaggageItem(BAGGAGE_KEY);
+        if (deadline == null) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            return Long.parseLong(deadline);
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Returns the remaining budget of the span in milliseconds, or {@link Long#MAX_VALUE} if it has no deadline.
+     */
+    public static long remainingMillis(Span span) {
+        long deadline = get(span);
+        return deadline == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.currentTimeMillis();
+    }
+
+    /**
+     * Fails with an exception if the deadline of the span has passed, recording the expiry on the span.
+     */
+    public static void check(Span span) {
+        long remaining = remainingMillis(span);
+        if (remaining <= 0) {
+            span.log(ImmutableMap.of(Fields.EVENT, "deadline-exceeded", "overrun_ms", -remaining));
+            throw new DeadlineExceededException("deadline exceeded by " + -remaining + "ms");
+        }
+    }
+
+    /**
+     * Adds the remaining budget of the span to an outgoing request.
+     */
+    public static void inject(Span span, Request.Builder requestBuilder) {
+        long remaining = remainingMillis(span);
+        if (remaining != Long.MAX_VALUE) {
+            requestBuilder.header(HEADER, Long.toString(Math.max(remaining, 0)));
+        }
+    }
+
+    /**
+     * Sets the deadline of a server span from the budget in the request headers. If the budget is already used up,
+     * the span is finished and the request is rejected with 504 Gateway Timeout without doing any work.
+     */
+    static void extract(HttpHeaders httpHeaders, Span span) {
+        String header = httpHeaders.getHeaderString(HEADER);
+        if (header == null) {
+            return;
+        }
+        long remaining;
+        try {
+            remaining = Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            return;
+        }
+        // the propagated baggage carries the caller's absolute deadline, replace it with one based on our clock
+        span.setBaggageItem(BAGGAGE_KEY, Long.toString(System.currentTimeMillis() + remaining));
+        span.setTag("deadline.budget_ms", remaining);
+        if (remaining <= 0) {
+            span.log(ImmutableMap.of(Fields.EVENT, "deadline-exceeded"));
+            Tags.ERROR.set(span, true);
+            span.finish();
+            throw new WebApplicationException("deadline exceeded", 504);
+        }
+    }
+
+    public static final class DeadlineExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public DeadlineExceededException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package lib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableMap;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import io.opentracing.log.Fields;
+import io.opentracing.tag.Tags;
+
+/**
+ * Runs independent sub-operations of a span concurrently, each in a child span of its own. Sub-operations are
+ * started with {@link #fork} and awaited with {@link #join}; the fan-out is meant to be used in a try-with-resources
+ * block, so that no sub-operation outlives it. Closing it cancels the sub-operations still running and waits for
+ * them to exit, for at most a second, since a task that ignores interruption cannot be stopped:
+ *
+ * <pre>
+ * try (FanOut fanOut = FanOut.of(tracer, executor)) {
+ *     FanOut.Subtask&lt;String&gt; a = fanOut.fork(A, () -&gt; callA());
+ *     FanOut.Subtask&lt;String&gt; b = fanOut.fork(B, () -&gt; callB());
+ *     fanOut.join();
+ *     return a.get() + b.get();
+ * }
+ * </pre>
+ *
+ * With fail-fast, the first failure cancels the remaining sub-operations. {@link #join} waits at most until the
+ * deadline of the parent span (see {@link Deadline}). Failures are logged on the parent span, which is tagged with
+ * {@link Tags#ERROR}, and rethrown from {@link #join} as a {@link FanOutException}. A sub-operation that is still
+ * running when the wait for cancelled sub-operations gives up is logged on the parent span.
+ */
+public final class FanOut implements AutoCloseable {
+    private static final long EXIT_TIMEOUT_MILLIS = 1000;
+
+    private final Tracer tracer;
+    private final Span parent;
+    private final Executor executor;
+    private final boolean failFast;
+    private final List<Subtask<?>> subtasks = new ArrayList<Subtask<?>>();
+    private final List<Subtask<?>> failed = new ArrayList<Subtask<?>>();
+    private int running;
+    private int executing;
+    private boolean cancelled;
+
+    private FanOut(Tracer tracer, Span parent, Executor executor, boolean failFast) {
+        this.tracer = tracer;
+        this.parent = parent;
+        this.executor = executor;
+        this.failFast = failFast;
+    }
+
+    /**
+     * Creates a fail-fast fan-out under the active span.
+     */
+    public static FanOut of(Tracer tracer, Executor executor) {
+        return of(tracer, tracer.activeSpan(), executor, true);
+    }
+
+    /**
+     * Creates a fan-out under the given span. Without fail-fast, all sub-operations run to completion even if some
+     * of them fail.
+     */
+    public static FanOut of(Tracer tracer, Span parent, Executor executor, boolean failFast) {
+        if (parent == null) {
+            throw new IllegalStateException("no parent span");
+        }
+        return new FanOut(tracer, parent, executor, failFast);
+    }
+
+    /**
+     * Starts the task on the executor in a child span with the given operation name, which is active while the task
+     * runs.
+     */
+    public <T> Subtask<T> fork(String operationName, Callable<T> task) {
+        Subtask<T> subtask = new Subtask<T>(operationName, task);
+        synchronized (this) {
+            if (cancelled) {
+                throw new IllegalStateException("fan-out is cancelled");
+            }
+            subtasks.add(subtask);
+            running++;
+        }
+        try {
+            executor.execute(subtask);
+        } catch (RejectedExecutionException e) {
+            subtask.fail(e);
+        }
+        return subtask;
+    }
+
+    /**
+     * Waits for all forked sub-operations to complete, or for the first failure with fail-fast, or until the
+     * deadline of the parent span. Sub-operations still running on failure or expiry are cancelled, and waited for
+     * until they exit.
+     *
+     * @throws FanOutException if any sub-operation failed
+     * @throws Deadline.DeadlineExceededException if the deadline passed first
+     */
+    public void join() throws InterruptedException {
+        synchronized (this) {
+            try {
+                while (running > 0 && !(failFast && !failed.isEmpty())) {
+                    long remaining = Deadline.remainingMillis(parent);
+                    if (remaining == Long.MAX_VALUE) {
+                        wait();
+                    } else if (remaining > 0) {
+                        TimeUnit.MILLISECONDS.timedWait(this, remaining);
+                    } else {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                cancel();
+                throw e;
+            }
+        }
+        if (running() > 0) {
+            cancel();
+        }
+        // also when a failing sub-operation has already cancelled the others
+        awaitExit();
+        Deadline.check(parent);
+        throwFailures();
+    }
+
+    /**
+     * Cancels all sub-operations that have not completed yet, interrupting the ones that are running.
+     */
+    public void cancel() {
+        List<Subtask<?>> toCancel;
+        synchronized (this) {
+            cancelled = true;
+            toCancel = new ArrayList<Subtask<?>>(subtasks);
+        }
+        for (Subtask<?> subtask : toCancel) {
+            subtask.cancel(true);
+        }
+    }
+
+    /**
+     * Cancels the sub-operations that are still running and waits for them to exit.
+     */
+    @Override
+    public void close() {
+        if (running() > 0) {
+            cancel();
+        }
+        awaitExit();
+    }
+
+    /**
+     * Waits for the tasks of cancelled sub-operations to return. A cancelled {@link FutureTask} is done as soon as it
+     * has interrupted its task, while the task itself may still be running and finish its span later.
+     */
+    private void awaitExit() {
+        int stillExecuting;
+        synchronized (this) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(EXIT_TIMEOUT_MILLIS);
+            try {
+                for (long remaining = EXIT_TIMEOUT_MILLIS; executing > 0 && remaining > 0;
+                        remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())) {
+                    TimeUnit.MILLISECONDS.timedWait(this, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            stillExecuting = executing;
+        }
+        if (stillExecuting > 0) {
+            parent.log(ImmutableMap.of(Fields.EVENT, "cancelled sub-operations still running", "count",
+                    stillExecuting));
+        }
+    }
+
+    private synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    private synchronized int running() {
+        return running;
+    }
+
+    private void throwFailures() {
+        List<Subtask<?>> failures;
+        synchronized (this) {
+            failures = new ArrayList<Subtask<?>>(failed);
+        }
+        if (failures.isEmpty()) {
+            return;
+        }
+        Tags.ERROR.set(parent, true);
+        FanOutException exception = null;
+        for (Subtask<?> subtask : failures) {
+            Throwable cause = subtask.failure();
+            parent.log(ImmutableMap.of(Fields.EVENT, "error", "operation", subtask.operationName,
+                    Fields.ERROR_OBJECT, cause));
+            if (exception == null) {
+                exception = new FanOutException(subtask.operationName + " failed", cause);
+            } else {
+                exception.addSuppressed(cause);
+            }
+        }
+        throw exception;
+    }
+
+    private synchronized boolean started() {
+        if (cancelled) {
+            return false;
+        }
+        executing++;
+        return true;
+    }
+
+    private synchronized void exited() {
+        executing--;
+        notifyAll();
+    }
+
+    private synchronized void completed(Subtask<?> subtask, boolean failure) {
+        running--;
+        if (failure) {
+            failed.add(subtask);
+        }
+        notifyAll();
+    }
+
+    /**
+     * A forked sub-operation. Its result is available once {@link FanOut#join} has returned.
+     */
+    public final class Subtask<T> extends FutureTask<T> {
+        private final String operationName;
+        private volatile Throwable failure;
+
+        Subtask(String operationName, Callable<T> task) {
+            super(() -> {
+                Span span = tracer.buildSpan(operationName).asChildOf(parent).start();
+                try (Scope scope = tracer.scopeManager().activate(span)) {
+                    return task.call();
+                } catch (Exception | Error e) {
+                    if (FanOut.this.isCancelled()) {
+                        // interrupted by the cancellation, not a failure of its own
+                        span.log(ImmutableMap.of(Fields.EVENT, "cancelled"));
+                    } else {
+                        Tags.ERROR.set(span, true);
+                        span.log(ImmutableMap.of(Fields.EVENT, "error", Fields.ERROR_OBJECT, e));
+                    }
+                    throw e;
+                } finally {
+                    span.finish();
+                }
+            });
+            this.operationName = operationName;
+        }
+
+        @Override
+        public void run() {
+            if (!FanOut.this.started()) {
+                // the fan-out was cancelled before the task started, FanOut#cancel cancels this subtask as well
+                return;
+            }
+            try {
+                super.run();
+            } finally {
+                FanOut.this.exited();
+            }
+        }
+
+        /**
+         * Returns the result of the sub-operation, which must have completed successfully.
+         */
+        @Override
+        public T get() {
+            if (!isDone()) {
+                throw new IllegalStateException(operationName + " has not completed");
+            }
+            try {
+                return super.get();
+            } catch (InterruptedException | ExecutionException | CancellationException e) {
+                throw new FanOutException(operationName + " failed", failure == null ? e : failure);
+            }
+        }
+
+        Throwable failure() {
+            return failure;
+        }
+
+        void fail(Throwable e) {
+            setException(e);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            failure = t;
+            super.setException(t);
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                completed(this, false);
+            } else {
+                completed(this, failure != null);
+                if (failFast && failure != null) {
+                    FanOut.this.cancel();
+                }
+            }
+        }
+    }
+
+    public static final class FanOutException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public FanOutException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package lib;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.ImmutableMap;
+
+import io.opentracing.Span;
+import io.opentracing.log.Fields;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Executes HTTP requests within the deadline of the calling span (see {@link Deadline}), optionally hedging them:
+ * if no response has arrived after the 95th percentile latency observed for the endpoint, a second identical request
+ * is sent, the first response wins and the other call is cancelled. Until enough calls to an endpoint have completed
+ * to estimate the percentile, the initial hedge delay is used instead. Hedging sends requests twice, so it must only
+ * be enabled for idempotent requests; use a separate, non-hedging client for the others. Hedges, cancellations and
+ * deadline expiries are logged on the span.
+ */
+public final class HedgingClient {
+    private final OkHttpClient client;
+    private final boolean hedging;
+    private final long initialDelayMillis;
+    private final ConcurrentHashMap<String, LatencyTracker> latencies = new ConcurrentHashMap<String, LatencyTracker>();
+
+    /**
+     * Creates a client that hedges, if enabled, only once the p95 latency of an endpoint is known.
+     */
+    public HedgingClient(OkHttpClient client, boolean hedging) {
+        this(client, hedging, -1);
+    }
+
+    /**
+     * @param initialDelayMillis the hedge delay for endpoints with too few calls to estimate their p95 latency, or
+     *            -1 to not hedge those calls
+     */
+    public HedgingClient(OkHttpClient client, boolean hedging, long initialDelayMillis) {
+        this.client = client;
+        this.hedging = hedging;
+        this.initialDelayMillis = initialDelayMillis;
+    }
+
+    /**
+     * Executes the request and returns the winning response, which the caller must close.
+     */
+    public Response execute(Request request, Span span) throws IOException {
+        Deadline.check(span);
+        LatencyTracker tracker = latencies.computeIfAbsent(
+                request.url().host() + ":" + request.url().port() + request.url().encodedPath(),
+                k -> new LatencyTracker());
+        long hedgeDelayMillis = -1;
+        if (hedging) {
+            hedgeDelayMillis = tracker.p95Millis();
+            if (hedgeDelayMillis < 0) {
+                hedgeDelayMillis = initialDelayMillis;
+            }
+        }
+
+        Race race = new Race();
+        Attempt first = race.start(request, Deadline.remainingMillis(span));
+        Attempt second = null;
+        try {
+            Attempt winner = null;
+            if (hedgeDelayMillis >= 0 && hedgeDelayMillis < Deadline.remainingMillis(span)) {
+                try {
+                    winner = race.winner.get(hedgeDelayMillis, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    second = race.hedge(request, Deadline.remainingMillis(span));
+                    if (second != null) {
+                        span.log(ImmutableMap.of(Fields.EVENT, "hedge", "delay_ms", hedgeDelayMillis));
+                    }
+                }
+            }
+            if (winner == null) {
+                long remaining = Deadline.remainingMillis(span);
+                winner = remaining == Long.MAX_VALUE ? race.winner.get()
+                        : race.winner.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+            }
+            tracker.record(System.nanoTime() - winner.startNanos);
+            Attempt loser = winner == first ? second : first;
+            if (loser != null) {
+                loser.cancel(span);
+            }
+            return winner.response;
+        } catch (TimeoutException e) {
+            cancel(span, first, second);
+            // a response may still slip in after giving up on the race
+            race.winner.thenAccept(late -> late.response.close());
+            Deadline.check(span);
+            throw new IOException("timed out", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel(span, first, second);
+            throw new IOException("interrupted", e);
+        } catch (ExecutionException e) {
+            cancel(span, first, second);
+            Deadline.check(span);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static void cancel(Span span, Attempt first, Attempt second) {
+        first.cancel(span);
+        if (second != null) {
+            second.cancel(span);
+        }
+    }
+
+    /**
+     * Attempts of one request racing for the first response. Fails only once all started attempts have failed.
+     */
+    private final class Race {
+        final CompletableFuture<Attempt> winner = new CompletableFuture<Attempt>();
+        final AtomicInteger running = new AtomicInteger();
+
+        Attempt start(Request request, long timeoutMillis) {
+            running.incrementAndGet();
+            return enqueue(request, timeoutMillis);
+        }
+
+        /**
+         * Starts another attempt unless the race is already decided. The attempt counts as running before the
+         * decision is final, so a concurrent failure of the last attempt cannot fail the race while it starts.
+         */
+        Attempt hedge(Request request, long timeoutMillis) {
+            int current;
+            do {
+                current = running.get();
+                if (current == 0 || winner.isDone()) {
+                    return null;
+                }
+            } while (!running.compareAndSet(current, current + 1));
+            return enqueue(request, timeoutMillis);
+        }
+
+        private Attempt enqueue(Request request, long timeoutMillis) {
+            Attempt attempt = new Attempt(this, request, timeoutMillis);
+            attempt.call.enqueue(attempt);
+            return attempt;
+        }
+    }
+
+    private final class Attempt implements Callback {
+        final Race race;
+        final Call call;
+        final long startNanos = System.nanoTime();
+        volatile Response response;
+        volatile boolean done;
+
+        Attempt(Race race, Request request, long timeoutMillis) {
+            this.race = race;
+            this.call = client.newCall(request);
+            if (timeoutMillis != Long.MAX_VALUE) {
+                call.timeout().timeout(Math.max(timeoutMillis, 1), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        void cancel(Span span) {
+            if (!done) {
+                call.cancel();
+                span.log(ImmutableMap.of(Fields.EVENT, "cancel", "elapsed_ms",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
+            }
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+            this.response = response;
+            done = true;
+            if (!race.winner.complete(this)) {
+                response.close();
+            }
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            done = true;
+            if (race.running.decrementAndGet() == 0) {
+                race.winner.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * The latencies of the last {@code WINDOW} successful calls to an endpoint.
+     */
+    private static final class LatencyTracker {
+        private static final int WINDOW = 256;
+        private static final int MIN_SAMPLES = 20;
+
+        private final long[] samples = new long[WINDOW];
+        private long count;
+        private long p95Millis = -1;
+
+        synchronized void record(long nanos) {
+            samples[(int) (count++ % WINDOW)] = nanos;
+            // recomputing the percentile sorts the window, so only do it every few samples
+            if (count >= MIN_SAMPLES && (count < WINDOW || count % 16 == 0)) {
+                long[] sorted = Arrays.copyOf(samples, (int) Math.min(count, WINDOW));
+                Arrays.sort(sorted);
+                p95Millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(sorted[(int) (sorted.length * 0.95)]));
+            }
+        }
+
+        /**
+         * Returns the p95 latency, or -1 until at least {@code MIN_SAMPLES} calls have been recorded.
+         */
+        synchronized long p95Millis() {
+            return p95Millis;
+        }
+    }
+}
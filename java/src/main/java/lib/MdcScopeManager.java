@@ -0,0 +1,73 @@
+package lib;
+
+import org.slf4j.MDC;
+
+import io.opentracing.Scope;
+import io.opentracing.ScopeManager;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+
+/**
+ * A {@link ScopeManager} decorator that puts the trace and span id of the active span into the logging MDC, so log
+ * lines can be correlated with traces, and restores the previous values when the scope is closed. Activating a null
+ * span, which leaves no span active, removes the ids for the duration of the scope.
+ */
+public final class MdcScopeManager implements ScopeManager {
+    public static final String TRACE_ID = "traceId";
+    public static final String SPAN_ID = "spanId";
+
+    private final ScopeManager delegate;
+
+    public MdcScopeManager(ScopeManager delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Scope activate(Span span) {
+        Scope scope = delegate.activate(span);
+        String previousTraceId = MDC.get(TRACE_ID);
+        String previousSpanId = MDC.get(SPAN_ID);
+        if (span == null) {
+            MDC.remove(TRACE_ID);
+            MDC.remove(SPAN_ID);
+        } else {
+            // Jaeger span contexts encode their ids once and return the same strings on every call
+            SpanContext context = span.context();
+            MDC.put(TRACE_ID, context.toTraceId());
+            MDC.put(SPAN_ID, context.toSpanId());
+        }
+        return new MdcScope(scope, previousTraceId, previousSpanId);
+    }
+
+    @Override
+    public Span activeSpan() {
+        return delegate.activeSpan();
+    }
+
+    private static final class MdcScope implements Scope {
+        private final Scope scope;
+        private final String previousTraceId;
+        private final String previousSpanId;
+
+        MdcScope(Scope scope, String previousTraceId, String previousSpanId) {
+            this.scope = scope;
+            this.previousTraceId = previousTraceId;
+            this.previousSpanId = previousSpanId;
+        }
+
+        @Override
+        public void close() {
+            scope.close();
+            restore(TRACE_ID, previousTraceId);
+            restore(SPAN_ID, previousSpanId);
+        }
+
+        private static void restore(String key, String value) {
+            if (value == null) {
+                MDC.remove(key);
+            } else {
+                MDC.put(key, value);
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package lib;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+
+/**
+ * Responds with 503 Service Unavailable, like {@link LoadSheddingFilter}, when an asynchronous resource could not
+ * hand its work to a bounded executor because the executor's queue was full. The server span has already been
+ * finished with an error by {@link Tracing#supplyAsync}. Register the mapper with Jersey, e.g.
+ * {@code environment.jersey().register(new RejectedExecutionMapper())}.
+ */
+public final class RejectedExecutionMapper implements ExceptionMapper<RejectedExecutionException> {
+    @Override
+    public Response toResponse(RejectedExecutionException exception) {
+        return Response.status(503).header("Retry-After", "1").build();
+    }
+}
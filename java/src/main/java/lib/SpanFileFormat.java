@@ -0,0 +1,301 @@
+package lib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encoding shared by {@link SpanFileReporter} and {@link SpanFileReader}.
+ *
+ * A file starts with {@link #MAGIC} and {@link #VERSION}, followed by blocks. Each block has an uncompressed header
+ * (payload length, span count, min and max start time) so readers can skip it without inflating, and a deflated
+ * payload laid out column by column: the string dictionary, trace/span/parent ids, service and operation dictionary
+ * ids, zigzag delta-encoded start times, durations, tag counts, tag keys and finally tag values.
+ */
+final class SpanFileFormat {
+    static final int MAGIC = 0x5350414e; // "SPAN"
+    static final byte VERSION = 1;
+    static final int BLOCK_HEADER_BYTES = 4 + 4 + 8 + 8;
+
+    private static final byte TAG_STRING = 0;
+    private static final byte TAG_TRUE = 1;
+    private static final byte TAG_FALSE = 2;
+    private static final byte TAG_LONG = 3;
+    private static final byte TAG_DOUBLE = 4;
+
+    private SpanFileFormat() {
+    }
+
+    static final class BlockHeader {
+        final int payloadLength;
+        final int spanCount;
+        final long minStartMicros;
+        final long maxStartMicros;
+
+        BlockHeader(int payloadLength, int spanCount, long minStartMicros, long maxStartMicros) {
+            this.payloadLength = payloadLength;
+            this.spanCount = spanCount;
+            this.minStartMicros = minStartMicros;
+            this.maxStartMicros = maxStartMicros;
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeInt(payloadLength);
+            out.writeInt(spanCount);
+            out.writeLong(minStartMicros);
+            out.writeLong(maxStartMicros);
+        }
+
+        static BlockHeader read(DataInput in) throws IOException {
+            return new BlockHeader(in.readInt(), in.readInt(), in.readLong(), in.readLong());
+        }
+    }
+
+    /**
+     * Encodes a block of spans, returning the block header followed by the compressed payload.
+     */
+    static byte[] encodeBlock(List<SpanRecord> spans) throws IOException {
+        int n = spans.size();
+        Map<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+        long minStart = Long.MAX_VALUE;
+        long maxStart = Long.MIN_VALUE;
+        int tagTotal = 0;
+        for (SpanRecord span : spans) {
+            intern(dictionary, span.getService());
+            intern(dictionary, span.getOperation());
+            for (Map.Entry<String, Object> tag : span.getTags().entrySet()) {
+                intern(dictionary, tag.getKey());
+                if (!(tag.getValue() instanceof Boolean || tag.getValue() instanceof Number)) {
+                    intern(dictionary, String.valueOf(tag.getValue()));
+                }
+                tagTotal++;
+            }
+            minStart = Math.min(minStart, span.getStartMicros());
+            maxStart = Math.max(maxStart, span.getStartMicros());
+        }
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64 + n * 48 + tagTotal * 4);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new DeflaterOutputStream(payload, deflater, 8192), 8192))) {
+            writeVarInt(out, dictionary.size());
+            for (String s : dictionary.keySet()) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                writeVarInt(out, bytes.length);
+                out.write(bytes);
+            }
+            for (SpanRecord span : spans) {
+                out.writeLong(span.getTraceIdHigh());
+            }
+            for (SpanRecord span : spans) {
+                out.writeLong(span.getTraceIdLow());
+            }
+            for (SpanRecord span : spans) {
+                out.writeLong(span.getSpanId());
+            }
+            for (SpanRecord span : spans) {
+                out.writeLong(span.getParentId());
+            }
+            for (SpanRecord span : spans) {
+                writeVarInt(out, dictionary.get(span.getService()));
+            }
+            for (SpanRecord span : spans) {
+                writeVarInt(out, dictionary.get(span.getOperation()));
+            }
+            long previous = minStart;
+            for (SpanRecord span : spans) {
+                writeVarLong(out, zigzag(span.getStartMicros() - previous));
+                previous = span.getStartMicros();
+            }
+            for (SpanRecord span : spans) {
+                writeVarLong(out, span.getDurationMicros());
+            }
+            for (SpanRecord span : spans) {
+                writeVarInt(out, span.getTags().size());
+            }
+            for (SpanRecord span : spans) {
+                for (String key : span.getTags().keySet()) {
+                    writeVarInt(out, dictionary.get(key));
+                }
+            }
+            for (SpanRecord span : spans) {
+                for (Object value : span.getTags().values()) {
+                    writeTagValue(out, dictionary, value);
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_HEADER_BYTES + payload.size());
+        DataOutputStream out = new DataOutputStream(block);
+        new BlockHeader(payload.size(), n, minStart, maxStart).write(out);
+        payload.writeTo(out);
+        out.flush();
+        return block.toByteArray();
+    }
+
+    static List<SpanRecord> decodeBlock(BlockHeader header, byte[] payload) throws IOException {
+        int n = header.spanCount;
+        Inflater inflater = new Inflater();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(payload), inflater, 8192), 8192))) {
+            String[] dictionary = new String[readVarInt(in)];
+            for (int i = 0; i < dictionary.length; i++) {
+                byte[] bytes = new byte[readVarInt(in)];
+                in.readFully(bytes);
+                dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            long[] traceIdHigh = readLongs(in, n);
+            long[] traceIdLow = readLongs(in, n);
+            long[] spanId = readLongs(in, n);
+            long[] parentId = readLongs(in, n);
+            int[] service = readVarInts(in, n);
+            int[] operation = readVarInts(in, n);
+            long[] start = new long[n];
+            long previous = header.minStartMicros;
+            for (int i = 0; i < n; i++) {
+                previous += unzigzag(readVarLong(in));
+                start[i] = previous;
+            }
+            long[] duration = new long[n];
+            for (int i = 0; i < n; i++) {
+                duration[i] = readVarLong(in);
+            }
+            int[] tagCount = readVarInts(in, n);
+            int tagTotal = 0;
+            for (int count : tagCount) {
+                tagTotal += count;
+            }
+            int[] tagKeys = readVarInts(in, tagTotal);
+
+            List<SpanRecord> spans = new ArrayList<SpanRecord>(n);
+            int tag = 0;
+            for (int i = 0; i < n; i++) {
+                Map<String, Object> tags = new HashMap<String, Object>(tagCount[i] * 2);
+                for (int j = 0; j < tagCount[i]; j++, tag++) {
+                    tags.put(dictionary[tagKeys[tag]], readTagValue(in, dictionary));
+                }
+                spans.add(new SpanRecord(traceIdHigh[i], traceIdLow[i], spanId[i], parentId[i],
+                        dictionary[service[i]], dictionary[operation[i]], start[i], duration[i], tags));
+            }
+            return spans;
+        } catch (IOException e) {
+            if (e.getCause() instanceof DataFormatException) {
+                throw new IOException("corrupt span block", e);
+            }
+            throw e;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void intern(Map<String, Integer> dictionary, String s) {
+        if (!dictionary.containsKey(s)) {
+            dictionary.put(s, dictionary.size());
+        }
+    }
+
+    private static void writeTagValue(DataOutput out, Map<String, Integer> dictionary, Object value)
+            throws IOException {
+        if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            out.writeByte(TAG_LONG);
+            writeVarLong(out, zigzag(((Number) value).longValue()));
+        } else {
+            out.writeByte(TAG_STRING);
+            writeVarInt(out, dictionary.get(String.valueOf(value)));
+        }
+    }
+
+    private static Object readTagValue(DataInput in, String[] dictionary) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+        case TAG_STRING:
+            return dictionary[readVarInt(in)];
+        case TAG_TRUE:
+            return Boolean.TRUE;
+        case TAG_FALSE:
+            return Boolean.FALSE;
+        case TAG_LONG:
+            return unzigzag(readVarLong(in));
+        case TAG_DOUBLE:
+            return in.readDouble();
+        default:
+            throw new IOException("unknown tag value type " + type);
+        }
+    }
+
+    private static long[] readLongs(DataInput in, int n) throws IOException {
+        long[] values = new long[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = in.readLong();
+        }
+        return values;
+    }
+
+    private static int[] readVarInts(DataInput in, int n) throws IOException {
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = readVarInt(in);
+        }
+        return values;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        writeVarLong(out, value & 0xffffffffL);
+    }
+
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        return (int) readVarLong(in);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+}
@@ -0,0 +1,186 @@
+package lib;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streams spans back out of files written by {@link SpanFileReporter}. Files are opened and decoded one block at a
+ * time as the stream is consumed, and blocks outside the requested time range are skipped without being inflated.
+ * The returned streams hold open files and should be closed, e.g. with try-with-resources.
+ */
+public final class SpanFileReader {
+    private long fromMicros = Long.MIN_VALUE;
+    private long toMicros = Long.MAX_VALUE;
+    private Predicate<SpanRecord> filter = span -> true;
+
+    /**
+     * Only return spans that started within [fromMicros, toMicros).
+     */
+    public SpanFileReader withTimeRange(long fromMicros, long toMicros) {
+        this.fromMicros = fromMicros;
+        this.toMicros = toMicros;
+        return this;
+    }
+
+    public SpanFileReader withService(String service) {
+        return withFilter(span -> service.equals(span.getService()));
+    }
+
+    public SpanFileReader withOperation(String operation) {
+        return withFilter(span -> operation.equals(span.getOperation()));
+    }
+
+    /**
+     * Only return spans with the tag. Numbers match by value rather than type, since integral tags are read back
+     * as {@code Long} and floating point tags as {@code Double} whatever type they were recorded with.
+     */
+    public SpanFileReader withTag(String key, Object value) {
+        return withFilter(span -> tagEquals(value, span.getTag(key)));
+    }
+
+    static boolean tagEquals(Object expected, Object actual) {
+        if (expected instanceof Number && actual instanceof Number) {
+            if (isFloatingPoint(expected) || isFloatingPoint(actual)) {
+                return Double.compare(((Number) expected).doubleValue(), ((Number) actual).doubleValue()) == 0;
+            }
+            return ((Number) expected).longValue() == ((Number) actual).longValue();
+        }
+        return expected.equals(actual);
+    }
+
+    private static boolean isFloatingPoint(Object value) {
+        return value instanceof Double || value instanceof Float;
+    }
+
+    public SpanFileReader withFilter(Predicate<SpanRecord> predicate) {
+        this.filter = this.filter.and(predicate);
+        return this;
+    }
+
+    /**
+     * Streams spans from a single span file, or from all span files in a directory in name order.
+     */
+    public Stream<SpanRecord> stream(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return streamFile(path);
+        }
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(path)) {
+            files = listing.filter(p -> p.getFileName().toString().endsWith(SpanFileReporter.FILE_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        return files.stream().flatMap(file -> {
+            try {
+                return streamFile(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private Stream<SpanRecord> streamFile(Path file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+        try {
+            if (in.readInt() != SpanFileFormat.MAGIC) {
+                throw new IOException("not a span file: " + file);
+            }
+            byte version = in.readByte();
+            if (version != SpanFileFormat.VERSION) {
+                throw new IOException("unsupported span file version " + version + ": " + file);
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        BlockSpliterator blocks = new BlockSpliterator(in);
+        return StreamSupport.stream(blocks, false).filter(filter).onClose(blocks::close);
+    }
+
+    private final class BlockSpliterator extends Spliterators.AbstractSpliterator<SpanRecord> {
+        private final DataInputStream in;
+        private Iterator<SpanRecord> current = Collections.emptyIterator();
+
+        BlockSpliterator(DataInputStream in) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+            this.in = in;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super SpanRecord> action) {
+            try {
+                while (true) {
+                    while (current.hasNext()) {
+                        SpanRecord span = current.next();
+                        if (span.getStartMicros() >= fromMicros && span.getStartMicros() < toMicros) {
+                            action.accept(span);
+                            return true;
+                        }
+                    }
+                    if (!nextBlock()) {
+                        return false;
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private boolean nextBlock() throws IOException {
+            while (true) {
+                SpanFileFormat.BlockHeader header;
+                try {
+                    header = SpanFileFormat.BlockHeader.read(in);
+                } catch (EOFException e) {
+                    return false;
+                }
+                if (header.maxStartMicros < fromMicros || header.minStartMicros >= toMicros) {
+                    skipFully(header.payloadLength);
+                    continue;
+                }
+                byte[] payload = new byte[header.payloadLength];
+                in.readFully(payload);
+                current = SpanFileFormat.decodeBlock(header, payload).iterator();
+                return true;
+            }
+        }
+
+        private void skipFully(int length) throws IOException {
+            int remaining = length;
+            while (remaining > 0) {
+                int skipped = in.skipBytes(remaining);
+                if (skipped == 0) {
+                    // skipBytes also returns 0 when the stream cannot skip, reading tells that apart from the end
+                    if (in.read() < 0) {
+                        throw new EOFException("truncated block, " + remaining + " of " + length + " bytes missing");
+                    }
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
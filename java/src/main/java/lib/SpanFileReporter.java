@@ -0,0 +1,222 @@
+package lib;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.spi.Reporter;
+
+/**
+ * A reporter that writes finished spans to compressed columnar files (see {@link SpanFileFormat}) for offline
+ * analysis with {@link SpanFileReader}. Spans are buffered into blocks on the reporting thread; encoding and I/O
+ * happen on a background writer thread. A new file is started once the current one exceeds the size limit.
+ *
+ * A block is written once it is full, and a partially filled block at least every flush interval, so a quiet server
+ * still gets its spans into the file. Spans that have not been written when the process dies are lost: those
+ * reported within the last flush interval, plus any blocks still queued for the writer thread.
+ */
+public final class SpanFileReporter implements Reporter {
+    public static final String FILE_SUFFIX = ".spans";
+
+    private static final int MAX_PENDING_BLOCKS = 64;
+    private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 5000;
+
+    private static final Logger log = LoggerFactory.getLogger(SpanFileReporter.class);
+
+    private final Path directory;
+    private final String prefix;
+    private final long maxFileBytes;
+    private final int blockSize;
+    private final ScheduledExecutorService writer;
+    private final AtomicLong spansWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong spansDropped = new AtomicLong();
+    private final AtomicInteger pendingBlocks = new AtomicInteger();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private List<SpanRecord> block;
+
+    // accessed only from the writer thread
+    private OutputStream out;
+    private long fileBytes;
+    private int fileSeq;
+
+    public SpanFileReporter(Path directory, String prefix) {
+        this(directory, prefix, 64 * 1024 * 1024, 4096);
+    }
+
+    public SpanFileReporter(Path directory, String prefix, long maxFileBytes, int blockSize) {
+        this(directory, prefix, maxFileBytes, blockSize, DEFAULT_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param flushInterval the longest time a reported span waits in a partially filled block
+     */
+    public SpanFileReporter(Path directory, String prefix, long maxFileBytes, int blockSize, long flushInterval,
+            TimeUnit unit) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.maxFileBytes = maxFileBytes;
+        this.blockSize = blockSize;
+        this.block = new ArrayList<SpanRecord>(blockSize);
+        this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "span-file-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // the periodic flush stops when the writer is shut down on close
+        writer.scheduleWithFixedDelay(this::submitPending, flushInterval, flushInterval, unit);
+    }
+
+    @Override
+    public void report(JaegerSpan span) {
+        SpanRecord record = SpanRecord.of(span);
+        List<SpanRecord> full = null;
+        synchronized (this) {
+            block.add(record);
+            if (block.size() >= blockSize) {
+                full = block;
+                block = new ArrayList<SpanRecord>(blockSize);
+            }
+        }
+        if (full != null) {
+            submit(full);
+        }
+    }
+
+    /**
+     * Writes out any partially filled block and waits for all pending blocks to reach the file.
+     */
+    public void flush() {
+        submitPending();
+        try {
+            writer.submit(() -> {
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        // the tracer's shutdown hook may close the reporter again
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        submitPending();
+        writer.submit(this::closeFile);
+        writer.shutdown();
+        try {
+            writer.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getSpansWritten() {
+        return spansWritten.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public long getSpansDropped() {
+        return spansDropped.get();
+    }
+
+    private void submitPending() {
+        List<SpanRecord> pending;
+        synchronized (this) {
+            pending = block;
+            block = new ArrayList<SpanRecord>(blockSize);
+        }
+        if (!pending.isEmpty()) {
+            submit(pending);
+        }
+    }
+
+    private void submit(List<SpanRecord> spans) {
+        // never let a slow disk turn into unbounded memory growth on the reporting threads
+        if (pendingBlocks.incrementAndGet() > MAX_PENDING_BLOCKS) {
+            pendingBlocks.decrementAndGet();
+            spansDropped.addAndGet(spans.size());
+            return;
+        }
+        writer.submit(() -> {
+            try {
+                writeBlock(spans);
+            } catch (IOException e) {
+                spansDropped.addAndGet(spans.size());
+                log.error("failed to write {} spans", spans.size(), e);
+            } finally {
+                pendingBlocks.decrementAndGet();
+            }
+        });
+    }
+
+    private void writeBlock(List<SpanRecord> spans) throws IOException {
+        byte[] encoded = SpanFileFormat.encodeBlock(spans);
+        if (out == null || fileBytes >= maxFileBytes) {
+            rollFile();
+        }
+        out.write(encoded);
+        out.flush();
+        fileBytes += encoded.length;
+        bytesWritten.addAndGet(encoded.length);
+        spansWritten.addAndGet(spans.size());
+    }
+
+    private void rollFile() throws IOException {
+        closeFile();
+        Path file = directory.resolve(String.format("%s-%d-%04d%s", prefix, System.currentTimeMillis(), fileSeq++,
+                FILE_SUFFIX));
+        out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024);
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(SpanFileFormat.MAGIC);
+        header.writeByte(SpanFileFormat.VERSION);
+        fileBytes = 5;
+        bytesWritten.addAndGet(5);
+    }
+
+    private void closeFile() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            log.error("failed to close span file", e);
+        }
+        out = null;
+    }
+
+    @Override
+    public String toString() {
+        return "SpanFileReporter(" + directory.resolve(prefix) + ")";
+    }
+}
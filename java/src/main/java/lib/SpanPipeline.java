@@ -0,0 +1,313 @@
+package lib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.spi.Reporter;
+
+/**
+ * A reporter that passes finished spans through a chain of {@link SpanProcessor}s and then to one or more exporting
+ * reporters. Reporting a span only puts it into a bounded queue; a worker thread takes the queued spans in batches,
+ * runs the processors in order and hands the remaining spans to every exporter. When the queue is full, further
+ * spans are dropped and counted rather than slowing down the threads that finish them.
+ *
+ * Every processor and exporter is a stage with a timer for its batch latency and a meter for the spans it passes
+ * on, see {@link #registerMetrics}. Create pipelines with {@link #builder()} and connect them to the tracer's
+ * reporters with {@link Tracing#init(String, SpanPipeline, Reporter...)}.
+ */
+public final class SpanPipeline implements Reporter {
+    private static final Logger log = LoggerFactory.getLogger(SpanPipeline.class);
+
+    private final List<Stage> processors;
+    private final int batchSize;
+    private final BlockingQueue<JaegerSpan> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    // spans accepted into the queue, and spans taken from it and fully handled
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong handled = new AtomicLong();
+    private final Object handledLock = new Object();
+
+    private volatile List<Stage> exporters;
+    private volatile boolean closed;
+    private Thread worker;
+
+    private SpanPipeline(Builder builder) {
+        this.processors = new ArrayList<Stage>(builder.processors);
+        this.batchSize = builder.batchSize;
+        this.queue = new ArrayBlockingQueue<JaegerSpan>(builder.queueSize);
+        this.exporters = new ArrayList<Stage>(builder.exporters);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns a pipeline with the processors configured in the environment: {@code SPAN_DROP_OPERATIONS} removes
+     * spans with the given comma-separated operation names, {@code SPAN_TAGS} adds comma-separated {@code key=value}
+     * tags to every span and {@code SPAN_REDACT_TAGS} redacts the values of the given comma-separated tags.
+     */
+    public static SpanPipeline fromEnv() {
+        Builder builder = builder();
+        String drop = System.getenv("SPAN_DROP_OPERATIONS");
+        if (drop != null) {
+            builder.process("drop", SpanProcessor.dropOperations(Arrays.asList(drop.split(","))));
+        }
+        String tags = System.getenv("SPAN_TAGS");
+        if (tags != null) {
+            Map<String, String> enrich = new LinkedHashMap<String, String>();
+            for (String tag : tags.split(",")) {
+                int eq = tag.indexOf('=');
+                if (eq <= 0) {
+                    throw new IllegalArgumentException("expecting key=value in SPAN_TAGS: " + tag);
+                }
+                enrich.put(tag.substring(0, eq), tag.substring(eq + 1));
+            }
+            builder.process("enrich", SpanProcessor.enrich(enrich));
+        }
+        String redact = System.getenv("SPAN_REDACT_TAGS");
+        if (redact != null) {
+            builder.process("redact", SpanProcessor.redact(Arrays.asList(redact.split(","))));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Starts the worker thread, with the given reporters as exporters in addition to those added to the builder.
+     * {@link Tracing#init(String, SpanPipeline, Reporter...)} starts the pipeline it is given.
+     */
+    public synchronized SpanPipeline start(Reporter... reporters) {
+        if (worker != null) {
+            throw new IllegalStateException("pipeline already started");
+        }
+        List<Stage> stages = new ArrayList<Stage>(exporters);
+        for (Reporter reporter : reporters) {
+            String name = reporter.getClass().getSimpleName();
+            for (Stage stage : stages) {
+                if (stage.name.equals(name)) {
+                    // stage names are metric names, which must be unique
+                    name = name + "-" + (stages.size() + 1);
+                    break;
+                }
+            }
+            stages.add(new Stage(name, null, reporter));
+        }
+        exporters = stages;
+        worker = new Thread(this::run, "span-pipeline");
+        worker.setDaemon(true);
+        worker.start();
+        return this;
+    }
+
+    @Override
+    public void report(JaegerSpan span) {
+        if (closed || !queue.offer(span)) {
+            dropped.incrementAndGet();
+            return;
+        }
+        accepted.incrementAndGet();
+    }
+
+    /**
+     * Waits until all spans reported so far have been exported, or dropped by a processor.
+     */
+    public void flush() {
+        long target = accepted.get();
+        synchronized (handledLock) {
+            try {
+                while (handled.get() < target && isRunning()) {
+                    handledLock.wait(100);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Exports the queued spans, stops the worker and closes the exporters.
+     */
+    @Override
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            thread = worker;
+        }
+        if (thread != null) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Stage exporter : exporters) {
+            exporter.reporter.close();
+        }
+    }
+
+    private synchronized boolean isRunning() {
+        return worker != null && worker.isAlive();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * Registers the queue length, the number of dropped spans and, for every stage, a timer of its batch latency
+     * and a meter of the spans it passed on, under {@code <prefix>.<stage>}. Exporters added by {@link #start} are
+     * only included once the pipeline has been started.
+     */
+    public void registerMetrics(MetricRegistry registry, String prefix) {
+        registry.register(prefix + ".queued", (Gauge<Integer>) this::getQueued);
+        registry.register(prefix + ".dropped", (Gauge<Long>) this::getDropped);
+        for (Stage stage : processors) {
+            stage.register(registry, prefix + ".process." + stage.name);
+        }
+        for (Stage stage : exporters) {
+            stage.register(registry, prefix + ".export." + stage.name);
+        }
+    }
+
+    private void run() {
+        List<JaegerSpan> batch = new ArrayList<JaegerSpan>(batchSize);
+        while (true) {
+            try {
+                JaegerSpan first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            int size = batch.size();
+            process(batch);
+            batch.clear();
+            handled.addAndGet(size);
+            synchronized (handledLock) {
+                handledLock.notifyAll();
+            }
+        }
+    }
+
+    private void process(List<JaegerSpan> batch) {
+        for (Stage stage : processors) {
+            long start = System.nanoTime();
+            try {
+                stage.processor.process(batch);
+            } catch (RuntimeException e) {
+                log.error("span processor {} failed, dropping {} spans", stage.name, batch.size(), e);
+                dropped.addAndGet(batch.size());
+                return;
+            }
+            stage.record(System.nanoTime() - start, batch.size());
+            if (batch.isEmpty()) {
+                return;
+            }
+        }
+        for (Stage stage : exporters) {
+            long start = System.nanoTime();
+            for (JaegerSpan span : batch) {
+                try {
+                    stage.reporter.report(span);
+                } catch (RuntimeException e) {
+                    log.error("span exporter {} failed", stage.name, e);
+                }
+            }
+            stage.record(System.nanoTime() - start, batch.size());
+        }
+    }
+
+    private static final class Stage {
+        final String name;
+        final SpanProcessor processor;
+        final Reporter reporter;
+        final Timer latency = new Timer();
+        final Meter throughput = new Meter();
+
+        Stage(String name, SpanProcessor processor, Reporter reporter) {
+            this.name = name;
+            this.processor = processor;
+            this.reporter = reporter;
+        }
+
+        void record(long nanos, int spans) {
+            latency.update(nanos, TimeUnit.NANOSECONDS);
+            throughput.mark(spans);
+        }
+
+        void register(MetricRegistry registry, String prefix) {
+            registry.register(prefix + ".latency", latency);
+            registry.register(prefix + ".spans", throughput);
+        }
+    }
+
+    public static final class Builder {
+        private final List<Stage> processors = new ArrayList<Stage>();
+        private final List<Stage> exporters = new ArrayList<Stage>();
+        private int queueSize = 8192;
+        private int batchSize = 512;
+
+        private Builder() {
+        }
+
+        /**
+         * Appends a processor; processors run in the order they were added.
+         */
+        public Builder process(String name, SpanProcessor processor) {
+            processors.add(new Stage(name, processor, null));
+            return this;
+        }
+
+        /**
+         * Adds a reporter that receives every span that passed all processors.
+         */
+        public Builder exportTo(String name, Reporter reporter) {
+            exporters.add(new Stage(name, null, reporter));
+            return this;
+        }
+
+        public Builder withQueueSize(int queueSize) {
+            this.queueSize = queueSize;
+            return this;
+        }
+
+        public Builder withBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public SpanPipeline build() {
+            return new SpanPipeline(this);
+        }
+    }
+}
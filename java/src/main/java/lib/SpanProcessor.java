@@ -0,0 +1,70 @@
+package lib;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.jaegertracing.internal.JaegerSpan;
+
+/**
+ * A step of a {@link SpanPipeline}. Processors receive batches of finished spans on the pipeline's worker thread and
+ * may change the spans' tags or remove spans from the batch.
+ */
+public interface SpanProcessor {
+
+    void process(List<JaegerSpan> batch);
+
+    /**
+     * Adds the given tags, with String, Boolean or Number values, to every span.
+     */
+    static SpanProcessor enrich(Map<String, ?> tags) {
+        Map<String, Object> copy = new LinkedHashMap<String, Object>(tags);
+        for (Map.Entry<String, Object> tag : copy.entrySet()) {
+            Object value = tag.getValue();
+            if (!(value instanceof String || value instanceof Boolean || value instanceof Number)) {
+                throw new IllegalArgumentException("unsupported tag value type for " + tag.getKey() + ": " + value);
+            }
+        }
+        return batch -> {
+            for (JaegerSpan span : batch) {
+                for (Map.Entry<String, Object> tag : copy.entrySet()) {
+                    Object value = tag.getValue();
+                    if (value instanceof String) {
+                        span.setTag(tag.getKey(), (String) value);
+                    } else if (value instanceof Boolean) {
+                        span.setTag(tag.getKey(), (Boolean) value);
+                    } else {
+                        span.setTag(tag.getKey(), (Number) value);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Replaces the values of the given tags with {@code "[redacted]"}.
+     */
+    static SpanProcessor redact(Collection<String> tagKeys) {
+        Set<String> keys = new HashSet<String>(tagKeys);
+        return batch -> {
+            for (JaegerSpan span : batch) {
+                for (String key : span.getTags().keySet()) {
+                    if (keys.contains(key)) {
+                        span.setTag(key, "[redacted]");
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Removes spans with the given operation names.
+     */
+    static SpanProcessor dropOperations(Collection<String> operationNames) {
+        Set<String> names = new HashSet<String>(operationNames);
+        return batch -> batch.removeIf(span -> names.contains(span.getOperationName()));
+    }
+}
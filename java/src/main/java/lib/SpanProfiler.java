@@ -0,0 +1,438 @@
+package lib;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.opentracing.Scope;
+import io.opentracing.ScopeManager;
+import io.opentracing.Span;
+import io.opentracing.log.Fields;
+
+/**
+ * A sampling profiler for the threads that have an active span. Threads are registered by the scope manager
+ * returned from {@link #scopeManager}; a background thread periodically takes the stack traces of all registered
+ * threads in one call and attributes each one to the span that is active on the thread.
+ *
+ * The samples are aggregated in two ways. When a scope that was active for at least the slow threshold is closed,
+ * its hottest frames are logged on the span in a {@code profile} event. Separately, the samples of every operation
+ * are counted by full stack, which {@link #writeFoldedStacks} exports in the folded format of flame graph tools.
+ *
+ * Stacks are taken at a safepoint, which pauses the application threads while {@link ThreadMXBean#getThreadInfo}
+ * runs. The sampler charges its own CPU time and the time the profiled threads were kept from running against the
+ * configured fraction of wall-clock time, and lengthens the sampling interval as needed to stay within it. That
+ * pause is the wall-clock time of taking the stacks less the CPU time the application threads still got meanwhile,
+ * so that the time the sampler merely waited for a CPU while the application ran is not charged. The
+ * budget is an estimate: threads without an active span are paused too, and threads blocked in native code count
+ * as runnable. Samples are biased towards safepoint polls such as method returns and loop back edges, as with any
+ * profiler built on {@link ThreadMXBean}.
+ */
+public final class SpanProfiler implements AutoCloseable {
+    private static final int MAX_STACKS_PER_OPERATION = 5000;
+    private static final int HOT_FRAMES = 5;
+    private static final String OTHER_STACKS = "[other]";
+
+    private final long intervalNanos;
+    private final long slowNanos;
+    private final double maxOverhead;
+    private final int maxDepth;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    // every thread that has activated a span is registered once, with a holder of its current activation, so
+    // that activating and closing scopes only writes a volatile field
+    private final ConcurrentHashMap<Thread, Holder> active = new ConcurrentHashMap<Thread, Holder>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, AtomicLong>> stacksByOperation =
+            new ConcurrentHashMap<String, ConcurrentHashMap<String, AtomicLong>>();
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong samplerNanos = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private final boolean cpuTime = threads.isCurrentThreadCpuTimeSupported();
+    private final boolean threadCpuTime = threads.isThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+    private final int processors = Runtime.getRuntime().availableProcessors();
+    private final Thread sampler;
+    private volatile boolean closed;
+
+    /**
+     * @param interval the time between samples
+     * @param slow the time a scope must be active before its hot frames are logged on its span
+     * @param maxOverhead the maximum fraction of wall-clock time the sampler may run or pause the profiled threads for,
+     *            e.g. 0.01
+     * @param maxDepth the maximum number of frames sampled per stack
+     */
+    public SpanProfiler(long interval, long slow, TimeUnit unit, double maxOverhead, int maxDepth) {
+        if (maxOverhead <= 0 || maxOverhead > 1) {
+            throw new IllegalArgumentException("maxOverhead must be in (0, 1]");
+        }
+        this.intervalNanos = unit.toNanos(interval);
+        this.slowNanos = unit.toNanos(slow);
+        this.maxOverhead = maxOverhead;
+        this.maxDepth = maxDepth;
+        this.sampler = new Thread(this::run, "span-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    /**
+     * Returns a profiler configured from the environment, or null unless {@code PROFILER_INTERVAL_MS} is set.
+     * {@code PROFILER_SLOW_MS} (default 100) sets the slow threshold and {@code PROFILER_MAX_OVERHEAD} (default
+     * 0.01) the maximum fraction of time spent sampling, including the time the application is paused for it.
+     */
+    public static SpanProfiler fromEnv() {
+        String interval = System.getenv("PROFILER_INTERVAL_MS");
+        if (interval == null) {
+            return null;
+        }
+        String slow = System.getenv("PROFILER_SLOW_MS");
+        String maxOverhead = System.getenv("PROFILER_MAX_OVERHEAD");
+        return new SpanProfiler(Long.parseLong(interval), slow == null ? 100 : Long.parseLong(slow),
+                TimeUnit.MILLISECONDS, maxOverhead == null ? 0.01 : Double.parseDouble(maxOverhead), 64);
+    }
+
+    /**
+     * Returns a scope manager that registers the threads on which spans are active with this profiler.
+     */
+    public ScopeManager scopeManager(ScopeManager delegate) {
+        return new ProfilingScopeManager(delegate);
+    }
+
+    public long getSamples() {
+        return samples.get();
+    }
+
+    /**
+     * Returns the sampler's CPU time plus the time the profiled threads were paused to take stacks, as a fraction of
+     * the wall-clock time since the profiler was created.
+     */
+    public double getOverhead() {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed == 0 ? 0 : (double) samplerNanos.get() / elapsed;
+    }
+
+    public void registerMetrics(MetricRegistry registry, String prefix) {
+        registry.register(prefix + ".samples", (Gauge<Long>) this::getSamples);
+        registry.register(prefix + ".overhead", (Gauge<Double>) this::getOverhead);
+        registry.register(prefix + ".threads", (Gauge<Integer>) this::getActiveThreads);
+    }
+
+    /**
+     * Returns the number of threads on which a span is active.
+     */
+    public int getActiveThreads() {
+        int count = 0;
+        for (Holder holder : active.values()) {
+            if (holder.current != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the sampled stacks of the operation, or of all operations if null, one per line in the folded format
+     * {@code operation;outermost.Frame;...;innermost.Frame count}.
+     */
+    public void writeFoldedStacks(String operation, PrintWriter out) {
+        Map<String, ConcurrentHashMap<String, AtomicLong>> operations =
+                new TreeMap<String, ConcurrentHashMap<String, AtomicLong>>(stacksByOperation);
+        for (Map.Entry<String, ConcurrentHashMap<String, AtomicLong>> op : operations.entrySet()) {
+            if (operation != null && !operation.equals(op.getKey())) {
+                continue;
+            }
+            for (Map.Entry<String, AtomicLong> stack : op.getValue().entrySet()) {
+                out.print(op.getKey());
+                out.print(';');
+                out.print(stack.getKey());
+                out.print(' ');
+                out.println(stack.getValue().get());
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Discards the sampled stacks of all operations.
+     */
+    public void reset() {
+        stacksByOperation.clear();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        sampler.interrupt();
+    }
+
+    private void run() {
+        long sleepNanos = intervalNanos;
+        while (!closed) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long start = samplerTime();
+            long pauseNanos = sample();
+            long cost = samplerTime() - start + pauseNanos;
+            samplerNanos.addAndGet(cost);
+            // sampling for cost nanos every period keeps the overhead at cost / period
+            long period = Math.max(intervalNanos, (long) (cost / maxOverhead));
+            sleepNanos = period - cost;
+        }
+    }
+
+    /**
+     * Returns the CPU time of the sampler thread if available: on a busy machine the sampler is often preempted,
+     * and counting the wall-clock time it waited for a CPU would throttle sampling far below the budget.
+     */
+    private long samplerTime() {
+        return cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * Takes one sample of every thread with an active span and returns how long the threads were paused for it.
+     */
+    private long sample() {
+        List<Holder> holders = new ArrayList<Holder>(active.size());
+        List<Activation> activations = new ArrayList<Activation>(active.size());
+        for (Map.Entry<Thread, Holder> entry : active.entrySet()) {
+            if (!entry.getKey().isAlive()) {
+                active.remove(entry.getKey());
+                continue;
+            }
+            Activation activation = entry.getValue().current;
+            if (activation != null) {
+                holders.add(entry.getValue());
+                activations.add(activation);
+            }
+        }
+        if (holders.isEmpty()) {
+            return 0;
+        }
+        long[] ids = new long[holders.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = holders.get(i).thread.getId();
+        }
+        long[] allIds = threadCpuTime ? threads.getAllThreadIds() : null;
+        long pauseStart = System.nanoTime();
+        long[] cpuBefore = threadCpuTimes(allIds);
+        ThreadInfo[] infos = threads.getThreadInfo(ids, maxDepth);
+        long[] cpuAfter = threadCpuTimes(allIds);
+        long pauseNanos = pauseNanos(System.nanoTime() - pauseStart, infos, allIds, cpuBefore, cpuAfter);
+        for (int i = 0; i < infos.length; i++) {
+            if (infos[i] == null || infos[i].getStackTrace().length == 0) {
+                continue;
+            }
+            StackTraceElement[] stack = infos[i].getStackTrace();
+            Activation before = activations.get(i);
+            Activation after = holders.get(i).current;
+            // the thread may have moved on to another span while the stacks were taken, in which case the stack
+            // can only be attributed to the operation, and only if both spans are of the same operation
+            if (after == before) {
+                before.record(frame(stack[0]));
+            } else if (after == null || !after.operationName.equals(before.operationName)) {
+                continue;
+            }
+            samples.incrementAndGet();
+            count(before.operationName, stack);
+        }
+        return pauseNanos;
+    }
+
+    private long[] threadCpuTimes(long[] ids) {
+        if (ids == null) {
+            return null;
+        }
+        long[] times = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            times[i] = threads.getThreadCpuTime(ids[i]);
+        }
+        return times;
+    }
+
+    /**
+     * Estimates how long taking the stacks kept the runnable profiled threads from running: the wall-clock time of
+     * the dump less the CPU time the Java threads other than the sampler got during it, spread over the processors
+     * the busy ones could use. On a machine with fewer processors than busy threads, most of the wall-clock time is
+     * the sampler waiting for a processor while the application runs, and the safepoint only costs the application
+     * a small part of it. The work of the JVM's own threads on the dump is not progress, so it stays charged.
+     */
+    private long pauseNanos(long wallNanos, ThreadInfo[] infos, long[] allIds, long[] cpuBefore, long[] cpuAfter) {
+        if (allIds == null) {
+            return wallNanos;
+        }
+        Set<Long> runnableIds = new HashSet<Long>();
+        for (ThreadInfo info : infos) {
+            if (info != null && info.getThreadState() == Thread.State.RUNNABLE) {
+                runnableIds.add(info.getThreadId());
+            }
+        }
+        if (runnableIds.isEmpty()) {
+            // threads that were blocked or waiting anyway lose nothing to the pause
+            return 0;
+        }
+        long sampler = Thread.currentThread().getId();
+        int busy = 0;
+        long progressNanos = 0;
+        for (int i = 0; i < allIds.length; i++) {
+            if (allIds[i] == sampler) {
+                continue;
+            }
+            long progress = cpuBefore[i] < 0 || cpuAfter[i] < 0 ? 0 : cpuAfter[i] - cpuBefore[i];
+            if (progress > 0 || runnableIds.contains(allIds[i])) {
+                busy++;
+                progressNanos += progress;
+            }
+        }
+        return Math.max(0, wallNanos - progressNanos / Math.max(1, Math.min(busy, processors)));
+    }
+
+    private void count(String operation, StackTraceElement[] stack) {
+        ConcurrentHashMap<String, AtomicLong> stacks = stacksByOperation.computeIfAbsent(operation,
+                k -> new ConcurrentHashMap<String, AtomicLong>());
+        StringBuilder folded = new StringBuilder(stack.length * 40);
+        for (int i = stack.length - 1; i >= 0; i--) {
+            folded.append(frame(stack[i]));
+            if (i > 0) {
+                folded.append(';');
+            }
+        }
+        String key = folded.toString();
+        AtomicLong count = stacks.get(key);
+        if (count == null) {
+            // cap the number of distinct stacks so that a deep recursion or generated code cannot exhaust memory
+            key = stacks.size() < MAX_STACKS_PER_OPERATION ? key : OTHER_STACKS;
+            count = stacks.computeIfAbsent(key, k -> new AtomicLong());
+        }
+        count.incrementAndGet();
+    }
+
+    private static String frame(StackTraceElement element) {
+        return element.getClassName() + '.' + element.getMethodName();
+    }
+
+    /**
+     * The innermost activation of a thread, written only by that thread.
+     */
+    private static final class Holder {
+        final Thread thread = Thread.currentThread();
+        volatile Activation current;
+    }
+
+    /**
+     * A span being active on a thread, with the innermost frames sampled while it was.
+     */
+    private static final class Activation {
+        final Span span;
+        final String operationName;
+        final long startNanos = System.nanoTime();
+        // guarded by this, created on the first sample since most activations are too short to be sampled
+        private Map<String, Integer> hotFrames;
+        private int samples;
+
+        Activation(Span span) {
+            this.span = span;
+            this.operationName = span instanceof JaegerSpan ? ((JaegerSpan) span).getOperationName() : "unknown";
+        }
+
+        synchronized void record(String frame) {
+            if (hotFrames == null) {
+                hotFrames = new HashMap<String, Integer>();
+            }
+            samples++;
+            hotFrames.merge(frame, 1, Integer::sum);
+        }
+
+        synchronized String hotFrames() {
+            List<Map.Entry<String, Integer>> frames = new ArrayList<Map.Entry<String, Integer>>(hotFrames.entrySet());
+            Collections.sort(frames, (a, b) -> b.getValue() - a.getValue());
+            StringBuilder out = new StringBuilder();
+            for (int i = 0; i < Math.min(HOT_FRAMES, frames.size()); i++) {
+                if (i > 0) {
+                    out.append(", ");
+                }
+                out.append(frames.get(i).getKey()).append(' ')
+                        .append(100 * frames.get(i).getValue() / samples).append('%');
+            }
+            return out.toString();
+        }
+
+        synchronized int samples() {
+            return samples;
+        }
+    }
+
+    private final class ProfilingScopeManager implements ScopeManager {
+        private final ScopeManager delegate;
+        private final ThreadLocal<Holder> holder = ThreadLocal.withInitial(() -> {
+            Holder holder = new Holder();
+            active.put(holder.thread, holder);
+            return holder;
+        });
+
+        ProfilingScopeManager(ScopeManager delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Scope activate(Span span) {
+            Scope scope = delegate.activate(span);
+            Holder thread = holder.get();
+            Activation previous = thread.current;
+            // activating null leaves the thread without an active span, so nothing is sampled for the scope
+            Activation activation = span == null ? null : new Activation(span);
+            thread.current = activation;
+            return new ProfilingScope(scope, thread, activation, previous);
+        }
+
+        @Override
+        public Span activeSpan() {
+            return delegate.activeSpan();
+        }
+
+        private final class ProfilingScope implements Scope {
+            private final Scope scope;
+            private final Holder thread;
+            private final Activation activation;
+            private final Activation previous;
+
+            ProfilingScope(Scope scope, Holder thread, Activation activation, Activation previous) {
+                this.scope = scope;
+                this.thread = thread;
+                this.activation = activation;
+                this.previous = previous;
+            }
+
+            @Override
+            public void close() {
+                scope.close();
+                thread.current = previous;
+                if (activation == null) {
+                    return;
+                }
+                long elapsed = System.nanoTime() - activation.startNanos;
+                int sampled = activation.samples();
+                if (elapsed >= slowNanos && sampled > 0) {
+                    activation.span.log(ImmutableMap.of(Fields.EVENT, "profile", "samples", sampled,
+                            "active_ms", TimeUnit.NANOSECONDS.toMillis(elapsed), "hot_frames",
+                            activation.hotFrames()));
+                }
+            }
+        }
+    }
+}
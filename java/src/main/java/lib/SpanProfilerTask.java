@@ -0,0 +1,31 @@
+package lib;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+
+import io.dropwizard.servlets.tasks.Task;
+
+/**
+ * A Dropwizard admin task that prints the stacks sampled by a {@link SpanProfiler} in folded format, ready for
+ * flame graph tools, e.g. {@code curl -X POST 'localhost:9081/tasks/span-profile?operation=format'}. With
+ * {@code reset=true} the samples are discarded after printing.
+ */
+public final class SpanProfilerTask extends Task {
+    private final SpanProfiler profiler;
+
+    public SpanProfilerTask(SpanProfiler profiler) {
+        super("span-profile");
+        this.profiler = profiler;
+    }
+
+    @Override
+    public void execute(Map<String, List<String>> parameters, PrintWriter output) {
+        List<String> operation = parameters.get("operation");
+        profiler.writeFoldedStacks(operation == null || operation.isEmpty() ? null : operation.get(0), output);
+        List<String> reset = parameters.get("reset");
+        if (reset != null && reset.contains("true")) {
+            profiler.reset();
+        }
+    }
+}
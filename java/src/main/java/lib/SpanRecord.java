@@ -0,0 +1,114 @@
+package lib;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerSpanContext;
+import io.jaegertracing.internal.Reference;
+import io.opentracing.References;
+
+/**
+ * An immutable snapshot of a finished span, detached from the tracer so it can be stored and analyzed offline.
+ */
+public final class SpanRecord {
+    private final long traceIdHigh;
+    private final long traceIdLow;
+    private final long spanId;
+    private final long parentId;
+    private final String service;
+    private final String operation;
+    private final long startMicros;
+    private final long durationMicros;
+    private final Map<String, Object> tags;
+
+    public SpanRecord(long traceIdHigh, long traceIdLow, long spanId, long parentId, String service,
+            String operation, long startMicros, long durationMicros, Map<String, Object> tags) {
+        this.traceIdHigh = traceIdHigh;
+        this.traceIdLow = traceIdLow;
+        this.spanId = spanId;
+        this.parentId = parentId;
+        this.service = service;
+        this.operation = operation;
+        this.startMicros = startMicros;
+        this.durationMicros = durationMicros;
+        this.tags = Collections.unmodifiableMap(tags);
+    }
+
+    public static SpanRecord of(JaegerSpan span) {
+        JaegerSpanContext context = span.context();
+        long parentId = context.getParentId();
+        if (parentId == 0) {
+            // spans joined via extract() have no parent id in the context, only a reference
+            List<Reference> references = span.getReferences();
+            for (Reference reference : references) {
+                if (References.CHILD_OF.equals(reference.getType())) {
+                    parentId = reference.getSpanContext().getSpanId();
+                    break;
+                }
+            }
+        }
+        return new SpanRecord(context.getTraceIdHigh(), context.getTraceIdLow(), context.getSpanId(), parentId,
+                span.getServiceName(), span.getOperationName(), span.getStart(), span.getDuration(),
+                new LinkedHashMap<String, Object>(span.getTags()));
+    }
+
+    public long getTraceIdHigh() {
+        return traceIdHigh;
+    }
+
+    public long getTraceIdLow() {
+        return traceIdLow;
+    }
+
+    public long getSpanId() {
+        return spanId;
+    }
+
+    public long getParentId() {
+        return parentId;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getStartMicros() {
+        return startMicros;
+    }
+
+    public long getDurationMicros() {
+        return durationMicros;
+    }
+
+    public long getEndMicros() {
+        return startMicros + durationMicros;
+    }
+
+    public Map<String, Object> getTags() {
+        return tags;
+    }
+
+    public Object getTag(String key) {
+        return tags.get(key);
+    }
+
+    public String getTraceId() {
+        if (traceIdHigh == 0) {
+            return Long.toHexString(traceIdLow);
+        }
+        return Long.toHexString(traceIdHigh) + String.format("%016x", traceIdLow);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s:%x:%x %s/%s start=%d duration=%d tags=%s", getTraceId(), spanId, parentId, service,
+                operation, startMicros, durationMicros, tags);
+    }
+}
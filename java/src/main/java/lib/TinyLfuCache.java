@@ -0,0 +1,204 @@
+package lib;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded cache with W-TinyLFU admission and a time-to-live. New entries go to a small LRU window; an entry evicted
+ * from the window only enters the main LRU region if it has been requested more often than the entry the main
+ * region would evict to make room for it. Request frequencies are estimated with a count-min sketch that is halved
+ * periodically, so popularity ages out. This keeps one-hit wonders from flushing frequently used entries, which
+ * matters for skewed key distributions. Expired entries are dropped when read, and are evicted without an admission
+ * check when they reach the end of the window or the main region.
+ */
+public final class TinyLfuCache<K, V> {
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final long ttlNanos;
+    private final FrequencySketch sketch;
+    private final LinkedHashMap<K, Entry<V>> window = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+    private final LinkedHashMap<K, Entry<V>> main = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejections;
+    private long expirations;
+
+    public TinyLfuCache(int capacity, long ttl, TimeUnit unit) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2");
+        }
+        this.windowCapacity = Math.max(1, capacity / 100);
+        this.mainCapacity = capacity - windowCapacity;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.sketch = new FrequencySketch(capacity);
+    }
+
+    /**
+     * Returns the cached value, or null if it is absent or expired.
+     */
+    public synchronized V get(K key) {
+        sketch.increment(key.hashCode());
+        Map<K, Entry<V>> region = window;
+        Entry<V> entry = window.get(key);
+        if (entry == null) {
+            region = main;
+            entry = main.get(key);
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAtNanos > 0) {
+            region.remove(key);
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    public synchronized void put(K key, V value) {
+        Entry<V> entry = new Entry<V>(value, System.nanoTime() + ttlNanos);
+        if (main.containsKey(key)) {
+            main.put(key, entry);
+            return;
+        }
+        window.put(key, entry);
+        if (window.size() <= windowCapacity) {
+            return;
+        }
+        long now = System.nanoTime();
+        Iterator<Map.Entry<K, Entry<V>>> windowLru = window.entrySet().iterator();
+        Map.Entry<K, Entry<V>> candidate = windowLru.next();
+        windowLru.remove();
+        if (now - candidate.getValue().expiresAtNanos > 0) {
+            expirations++;
+            return;
+        }
+        if (main.size() < mainCapacity) {
+            main.put(candidate.getKey(), candidate.getValue());
+            return;
+        }
+        Iterator<Map.Entry<K, Entry<V>>> mainLru = main.entrySet().iterator();
+        Map.Entry<K, Entry<V>> victim = mainLru.next();
+        // an expired victim is dead weight however often it was used, so it never keeps the candidate out
+        if (now - victim.getValue().expiresAtNanos > 0) {
+            mainLru.remove();
+            main.put(candidate.getKey(), candidate.getValue());
+            expirations++;
+        } else if (sketch.frequency(candidate.getKey().hashCode()) > sketch.frequency(victim.getKey().hashCode())) {
+            mainLru.remove();
+            main.put(candidate.getKey(), candidate.getValue());
+            evictions++;
+        } else {
+            rejections++;
+        }
+    }
+
+    public synchronized int size() {
+        return window.size() + main.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Entries removed from the main region to admit a more frequently used one.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Entries dropped from the window because they were used less often than the main region's victim.
+     */
+    public synchronized long getRejections() {
+        return rejections;
+    }
+
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    public synchronized double getHitRatio() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAtNanos;
+
+        Entry(V value, long expiresAtNanos) {
+            this.value = value;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    /**
+     * Count-min sketch with 4 rows of byte counters capped at 15. After 10 * capacity increments all counters are
+     * halved.
+     */
+    private static final class FrequencySketch {
+        private static final int[] SEEDS = { 0x97cb3127, 0xb7f6e4d5, 0x2a6f3b1d, 0x5bd1e995 };
+
+        private final byte[][] table;
+        private final int shift;
+        private final int sampleSize;
+        private int samples;
+
+        FrequencySketch(int capacity) {
+            int width = Integer.highestOneBit(Math.max(capacity, 16) * 2 - 1);
+            this.table = new byte[SEEDS.length][width];
+            this.shift = 32 - Integer.numberOfTrailingZeros(width);
+            this.sampleSize = 10 * capacity;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int index = index(hash, i);
+                if (table[i][index] < 15) {
+                    table[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++samples >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(int hash) {
+            int min = 15;
+            for (int i = 0; i < SEEDS.length; i++) {
+                min = Math.min(min, table[i][index(hash, i)]);
+            }
+            return min;
+        }
+
+        private int index(int hash, int row) {
+            // the high bits of the product depend on all bits of the hash
+            int h = (hash ^ (hash >>> 16)) * SEEDS[row];
+            return h >>> shift;
+        }
+
+        private void reset() {
+            for (byte[] row : table) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] = (byte) (row[j] >>> 1);
+                }
+            }
+            samples /= 2;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package lib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.opentracing.tag.Tags;
+
+/**
+ * Latency breakdown of a single assembled trace: the critical path, the self time of every span, and the
+ * client/server gap of every RPC hop.
+ *
+ * The critical path is found by walking back from the end of the root span, at each step descending into the child
+ * that finished last before the current point in time. Time not covered by such a child is attributed to the parent,
+ * so of several children running in parallel only the one that finished last is on the path. A child that ends after
+ * its parent is cut off at the parent's end. Spans whose parent is not part of the trace are never on the path, but
+ * their self time is still computed.
+ * The gap of a hop is the part of a client span not covered by its server span, i.e. network transfer plus queueing
+ * on either side; it is split into the request and response halves, which are only meaningful if the hosts' clocks
+ * are in sync.
+ */
+public final class TraceAnalysis {
+    private static final Comparator<SpanRecord> BY_END_DESC = Comparator.comparingLong(SpanRecord::getEndMicros)
+            .reversed();
+
+    private final SpanRecord root;
+    private final List<Segment> criticalPath = new ArrayList<Segment>();
+    private final Map<SpanRecord, Long> selfMicros = new IdentityHashMap<SpanRecord, Long>();
+    private final Map<SpanRecord, Long> criticalMicros = new IdentityHashMap<SpanRecord, Long>();
+    private final List<Hop> hops = new ArrayList<Hop>();
+
+    private TraceAnalysis(SpanRecord root) {
+        this.root = root;
+    }
+
+    public static TraceAnalysis of(List<SpanRecord> trace) {
+        if (trace.isEmpty()) {
+            throw new IllegalArgumentException("empty trace");
+        }
+        Map<Long, SpanRecord> byId = new HashMap<Long, SpanRecord>(trace.size() * 2);
+        for (SpanRecord span : trace) {
+            byId.put(span.getSpanId(), span);
+        }
+        Map<SpanRecord, List<SpanRecord>> children = new IdentityHashMap<SpanRecord, List<SpanRecord>>();
+        SpanRecord root = null;
+        for (SpanRecord span : trace) {
+            SpanRecord parent = span.getParentId() == 0 ? null : byId.get(span.getParentId());
+            if (parent == null || parent == span) {
+                // the longest parentless span is the root, preferring spans without a parent id over those whose
+                // parent was lost; other orphans are only counted for self time
+                if (root == null || isRootBefore(span, root)) {
+                    root = span;
+                }
+            } else {
+                children.computeIfAbsent(parent, p -> new ArrayList<SpanRecord>()).add(span);
+            }
+        }
+
+        TraceAnalysis analysis = new TraceAnalysis(root);
+        for (SpanRecord span : trace) {
+            List<SpanRecord> spanChildren = children.getOrDefault(span, Collections.<SpanRecord>emptyList());
+            analysis.selfMicros.put(span, selfTime(span, spanChildren));
+            if (isKind(span, Tags.SPAN_KIND_CLIENT)) {
+                for (SpanRecord child : spanChildren) {
+                    if (isKind(child, Tags.SPAN_KIND_SERVER)) {
+                        analysis.hops.add(new Hop(span, child));
+                    }
+                }
+            }
+        }
+        analysis.walk(root, root.getEndMicros(), children);
+        Collections.reverse(analysis.criticalPath);
+        return analysis;
+    }
+
+    public SpanRecord getRoot() {
+        return root;
+    }
+
+    /**
+     * The critical path in chronological order.
+     */
+    public List<Segment> getCriticalPath() {
+        return criticalPath;
+    }
+
+    public long getSelfMicros(SpanRecord span) {
+        return selfMicros.getOrDefault(span, 0L);
+    }
+
+    /**
+     * How much of the span's self time lies on the critical path.
+     */
+    public long getCriticalMicros(SpanRecord span) {
+        return criticalMicros.getOrDefault(span, 0L);
+    }
+
+    public List<Hop> getHops() {
+        return hops;
+    }
+
+    private static boolean isRootBefore(SpanRecord span, SpanRecord root) {
+        boolean spanIsRoot = span.getParentId() == 0 || span.getParentId() == span.getSpanId();
+        boolean rootIsRoot = root.getParentId() == 0 || root.getParentId() == root.getSpanId();
+        if (spanIsRoot != rootIsRoot) {
+            return spanIsRoot;
+        }
+        return span.getDurationMicros() > root.getDurationMicros();
+    }
+
+    private void walk(SpanRecord span, long end, Map<SpanRecord, List<SpanRecord>> children) {
+        end = Math.min(end, span.getEndMicros());
+        long cursor = end;
+        List<SpanRecord> spanChildren = new ArrayList<SpanRecord>(
+                children.getOrDefault(span, Collections.<SpanRecord>emptyList()));
+        spanChildren.sort(BY_END_DESC);
+        for (SpanRecord child : spanChildren) {
+            if (cursor <= span.getStartMicros()) {
+                break;
+            }
+            long childEnd = Math.min(child.getEndMicros(), end);
+            if (childEnd > cursor || child.getStartMicros() >= cursor
+                    || child.getEndMicros() <= span.getStartMicros()) {
+                // ran in parallel with the part of the path already found, or lies outside of the parent
+                continue;
+            }
+            addSegment(span, childEnd, cursor);
+            walk(child, childEnd, children);
+            cursor = Math.max(child.getStartMicros(), span.getStartMicros());
+        }
+        addSegment(span, span.getStartMicros(), cursor);
+    }
+
+    private void addSegment(SpanRecord span, long start, long end) {
+        if (end > start) {
+            criticalPath.add(new Segment(span, start, end));
+            criticalMicros.merge(span, end - start, Long::sum);
+        }
+    }
+
+    private static long selfTime(SpanRecord span, List<SpanRecord> children) {
+        if (children.isEmpty()) {
+            return span.getDurationMicros();
+        }
+        List<SpanRecord> sorted = new ArrayList<SpanRecord>(children);
+        sorted.sort(Comparator.comparingLong(SpanRecord::getStartMicros));
+        long covered = 0;
+        long coveredUntil = span.getStartMicros();
+        for (SpanRecord child : sorted) {
+            long start = Math.max(child.getStartMicros(), coveredUntil);
+            long end = Math.min(child.getEndMicros(), span.getEndMicros());
+            if (end > start) {
+                covered += end - start;
+                coveredUntil = end;
+            }
+        }
+        return span.getDurationMicros() - covered;
+    }
+
+    private static boolean isKind(SpanRecord span, String kind) {
+        return kind.equals(span.getTag(Tags.SPAN_KIND.getKey()));
+    }
+
+    /**
+     * A stretch of time on the critical path attributed to a single span.
+     */
+    public static final class Segment {
+        private final SpanRecord span;
+        private final long startMicros;
+        private final long endMicros;
+
+        Segment(SpanRecord span, long startMicros, long endMicros) {
+            this.span = span;
+            this.startMicros = startMicros;
+            this.endMicros = endMicros;
+        }
+
+        public SpanRecord getSpan() {
+            return span;
+        }
+
+        public long getStartMicros() {
+            return startMicros;
+        }
+
+        public long getEndMicros() {
+            return endMicros;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s/%s %dus", span.getService(), span.getOperation(), endMicros - startMicros);
+        }
+    }
+
+    /**
+     * A client span and the server span it caused.
+     */
+    public static final class Hop {
+        private final SpanRecord client;
+        private final SpanRecord server;
+
+        Hop(SpanRecord client, SpanRecord server) {
+            this.client = client;
+            this.server = server;
+        }
+
+        public SpanRecord getClient() {
+            return client;
+        }
+
+        public SpanRecord getServer() {
+            return server;
+        }
+
+        public long getGapMicros() {
+            return client.getDurationMicros() - server.getDurationMicros();
+        }
+
+        public long getRequestGapMicros() {
+            return server.getStartMicros() - client.getStartMicros();
+        }
+
+        public long getResponseGapMicros() {
+            return client.getEndMicros() - server.getEndMicros();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s/%s -> %s/%s gap=%dus", client.getService(), client.getOperation(),
+                    server.getService(), server.getOperation(), getGapMicros());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package lib;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Aggregates {@link TraceAnalysis} results over a stream of traces into per-operation and per-hop statistics.
+ * Only the aggregates are kept, so memory use does not grow with the number of traces analyzed.
+ */
+public final class TraceAnalyzer implements Consumer<List<SpanRecord>> {
+    private final Map<String, Stats> operations = new TreeMap<String, Stats>();
+    private final Map<String, Stats> hops = new TreeMap<String, Stats>();
+    private long traces;
+
+    /**
+     * Assembles the spans into traces and analyzes each of them.
+     *
+     * @param idleMicros how long after its last span ended a trace is considered complete
+     */
+    public static TraceAnalyzer analyze(Stream<SpanRecord> spans, long idleMicros) {
+        TraceAnalyzer analyzer = new TraceAnalyzer();
+        TraceAssembler assembler = new TraceAssembler(idleMicros, 100_000, analyzer);
+        spans.forEach(assembler);
+        assembler.flush();
+        return analyzer;
+    }
+
+    @Override
+    public synchronized void accept(List<SpanRecord> trace) {
+        TraceAnalysis analysis = TraceAnalysis.of(trace);
+        traces++;
+        for (SpanRecord span : trace) {
+            Stats stats = operations.computeIfAbsent(span.getService() + "/" + span.getOperation(), k -> new Stats());
+            stats.count++;
+            stats.durationMicros += span.getDurationMicros();
+            stats.selfMicros += analysis.getSelfMicros(span);
+            long critical = analysis.getCriticalMicros(span);
+            stats.criticalMicros += critical;
+            if (critical > 0) {
+                stats.onCriticalPath++;
+            }
+        }
+        for (TraceAnalysis.Hop hop : analysis.getHops()) {
+            SpanRecord client = hop.getClient();
+            SpanRecord server = hop.getServer();
+            Stats stats = hops.computeIfAbsent(client.getService() + "/" + client.getOperation() + " -> "
+                    + server.getService() + "/" + server.getOperation(), k -> new Stats());
+            stats.count++;
+            stats.durationMicros += client.getDurationMicros();
+            stats.gapMicros += hop.getGapMicros();
+            stats.maxGapMicros = Math.max(stats.maxGapMicros, hop.getGapMicros());
+        }
+    }
+
+    public synchronized long getTraces() {
+        return traces;
+    }
+
+    public synchronized String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d traces%n", traces));
+        sb.append(String.format("%-40s %8s %12s %12s %12s %8s%n", "operation", "count", "avg dur us", "avg self us",
+                "avg crit us", "crit %"));
+        for (Map.Entry<String, Stats> e : operations.entrySet()) {
+            Stats s = e.getValue();
+            sb.append(String.format("%-40s %8d %12.1f %12.1f %12.1f %8.1f%n", e.getKey(), s.count,
+                    (double) s.durationMicros / s.count, (double) s.selfMicros / s.count,
+                    (double) s.criticalMicros / s.count, 100.0 * s.onCriticalPath / s.count));
+        }
+        sb.append(String.format("%-60s %8s %12s %12s%n", "hop", "count", "avg gap us", "max gap us"));
+        for (Map.Entry<String, Stats> e : hops.entrySet()) {
+            Stats s = e.getValue();
+            sb.append(String.format("%-60s %8d %12.1f %12d%n", e.getKey(), s.count, (double) s.gapMicros / s.count,
+                    s.maxGapMicros));
+        }
+        return sb.toString();
+    }
+
+    private static final class Stats {
+        long count;
+        long durationMicros;
+        long selfMicros;
+        long criticalMicros;
+        long onCriticalPath;
+        long gapMicros;
+        long maxGapMicros;
+    }
+}
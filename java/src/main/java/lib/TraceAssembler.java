@@ -0,0 +1,133 @@
+package lib;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Groups a stream of finished spans, in any order, into complete traces. A trace is considered complete once no
+ * span ending later than its last span has been added to it while the stream time (the latest span end time seen)
+ * advanced by {@code idleMicros}, or when it is the oldest of more than {@code maxOpenTraces} open traces, i.e. the
+ * one whose last span ended first. This keeps memory bounded by the number of concurrently active traces rather
+ * than the size of the input.
+ */
+public final class TraceAssembler implements Consumer<SpanRecord> {
+    private final long idleMicros;
+    private final int maxOpenTraces;
+    private final Consumer<List<SpanRecord>> sink;
+
+    private final Map<TraceKey, OpenTrace> open = new HashMap<TraceKey, OpenTrace>(1024);
+    // open traces by the end time of their last span, so the head is the trace idle for longest; a trace is queued
+    // again whenever its end time moves, and entries with an outdated end time are discarded when they reach the head
+    private final PriorityQueue<QueuedTrace> byEnd = new PriorityQueue<QueuedTrace>(1024,
+            (a, b) -> Long.compare(a.lastEndMicros, b.lastEndMicros));
+    private long watermarkMicros = Long.MIN_VALUE;
+
+    public TraceAssembler(long idleMicros, int maxOpenTraces, Consumer<List<SpanRecord>> sink) {
+        this.idleMicros = idleMicros;
+        this.maxOpenTraces = maxOpenTraces;
+        this.sink = sink;
+    }
+
+    @Override
+    public void accept(SpanRecord span) {
+        TraceKey key = new TraceKey(span.getTraceIdHigh(), span.getTraceIdLow());
+        OpenTrace trace = open.get(key);
+        if (trace == null) {
+            trace = new OpenTrace(key);
+            open.put(key, trace);
+        }
+        trace.spans.add(span);
+        if (span.getEndMicros() > trace.lastEndMicros) {
+            trace.lastEndMicros = span.getEndMicros();
+            byEnd.add(new QueuedTrace(trace, trace.lastEndMicros));
+        }
+        watermarkMicros = Math.max(watermarkMicros, span.getEndMicros());
+        emitIdle();
+    }
+
+    /**
+     * Emits all traces that are still open, e.g. at the end of the input.
+     */
+    public void flush() {
+        while (!open.isEmpty()) {
+            emit(byEnd.poll());
+        }
+        byEnd.clear();
+    }
+
+    public int getOpenTraces() {
+        return open.size();
+    }
+
+    private void emitIdle() {
+        while (!byEnd.isEmpty()) {
+            QueuedTrace head = byEnd.peek();
+            if (head.isCurrent() && open.size() <= maxOpenTraces
+                    && head.lastEndMicros + idleMicros > watermarkMicros) {
+                return;
+            }
+            emit(byEnd.poll());
+        }
+    }
+
+    private void emit(QueuedTrace queued) {
+        if (queued.isCurrent()) {
+            open.remove(queued.trace.key);
+            queued.trace.emitted = true;
+            sink.accept(queued.trace.spans);
+        }
+    }
+
+    private static final class OpenTrace {
+        final TraceKey key;
+        final List<SpanRecord> spans = new ArrayList<SpanRecord>();
+        long lastEndMicros = Long.MIN_VALUE;
+        boolean emitted;
+
+        OpenTrace(TraceKey key) {
+            this.key = key;
+        }
+    }
+
+    private static final class QueuedTrace {
+        final OpenTrace trace;
+        final long lastEndMicros;
+
+        QueuedTrace(OpenTrace trace, long lastEndMicros) {
+            this.trace = trace;
+            this.lastEndMicros = lastEndMicros;
+        }
+
+        boolean isCurrent() {
+            return !trace.emitted && trace.lastEndMicros == lastEndMicros;
+        }
+    }
+
+    private static final class TraceKey {
+        final long high;
+        final long low;
+
+        TraceKey(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TraceKey)) {
+                return false;
+            }
+            TraceKey other = (TraceKey) o;
+            return high == other.high && low == other.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(high) + Long.hashCode(low);
+        }
+    }
+}
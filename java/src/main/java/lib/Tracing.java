@@ -1,23 +1,40 @@
 package lib;
 
-import java.util.HashMap;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MultivaluedMap;
 
+import com.google.common.collect.ImmutableMap;
+
 import io.jaegertracing.Configuration;
 import io.jaegertracing.Configuration.ReporterConfiguration;
 import io.jaegertracing.Configuration.SamplerConfiguration;
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.CompositeReporter;
 import io.jaegertracing.internal.samplers.ConstSampler;
+import io.jaegertracing.spi.Reporter;
+import io.opentracing.Scope;
+import io.opentracing.ScopeManager;
 import io.opentracing.Span;
 import io.opentracing.SpanContext;
 import io.opentracing.Tracer;
+import io.opentracing.log.Fields;
 import io.opentracing.propagation.Format;
 import io.opentracing.propagation.TextMap;
-import io.opentracing.propagation.TextMapAdapter;
 import io.opentracing.tag.Tags;
+import io.opentracing.util.ThreadLocalScopeManager;
 import okhttp3.Request;
 
 public final class Tracing {
@@ -25,6 +42,43 @@ public final class Tracing {
     }
 
     public static Tracer init(String service) {
+        return init(service, new Reporter[0]);
+    }
+
+    /**
+     * Creates a tracer that reports spans to the reporters configured from the environment, as well as to the
+     * given additional reporters. Null reporters are ignored.
+     */
+    public static Tracer init(String service, Reporter... additionalReporters) {
+        return init(service, (SpanPipeline) null, additionalReporters);
+    }
+
+    /**
+     * Creates a tracer that reports spans to the given pipeline, if not null, and starts the pipeline with the
+     * reporters configured from the environment as its exporters. The additional reporters get every span straight
+     * from the tracer rather than through the pipeline, so that reporters which control the server, such as
+     * {@link ConcurrencyLimiter}, see all spans unchanged by processors and are not starved when the pipeline's queue
+     * overflows under load.
+     */
+    public static Tracer init(String service, SpanPipeline pipeline, Reporter... additionalReporters) {
+        return init(service, pipeline, null, additionalReporters);
+    }
+
+    /**
+     * Creates a tracer as {@link #init(String, SpanPipeline, Reporter...)} does, whose active spans are sampled by
+     * the given profiler, if not null.
+     */
+    public static Tracer init(String service, SpanPipeline pipeline, SpanProfiler profiler,
+            Reporter... additionalReporters) {
+        List<Reporter> directReporters = new ArrayList<Reporter>();
+        for (Reporter reporter : additionalReporters) {
+            if (reporter != null) {
+                directReporters.add(reporter);
+            }
+        }
+        // SPAN_FILE_DIR enables writing spans to local files for offline analysis with SpanFileReader
+        String spanFileDir = System.getenv("SPAN_FILE_DIR");
+        Reporter spanFileReporter = spanFileDir == null ? null : new SpanFileReporter(Paths.get(spanFileDir), service);
         SamplerConfiguration samplerConfig = SamplerConfiguration.fromEnv()
                 .withType(ConstSampler.TYPE)
                 .withParam(1);
@@ -32,34 +86,119 @@ public final class Tracing {
         ReporterConfiguration reporterConfig = ReporterConfiguration.fromEnv()
                 .withLogSpans(true);
 
-        Configuration config = new Configuration(service)
-                .withSampler(samplerConfig)
+        Configuration config = new Configuration(service) {
+            @Override
+            protected JaegerTracer.Builder createTracerBuilder(String serviceName) {
+                JaegerTracer.Builder builder = new JaegerTracer.Builder(serviceName) {
+                    @Override
+                    public JaegerTracer.Builder withReporter(Reporter reporter) {
+                        Reporter[] exporters = spanFileReporter == null ? new Reporter[] { reporter }
+                                : new Reporter[] { reporter, spanFileReporter };
+                        List<Reporter> reporters = new ArrayList<Reporter>(directReporters);
+                        if (pipeline != null) {
+                            reporters.add(pipeline.start(exporters));
+                        } else {
+                            reporters.addAll(Arrays.asList(exporters));
+                        }
+                        if (reporters.size() == 1) {
+                            return super.withReporter(reporters.get(0));
+                        }
+                        return super.withReporter(new CompositeReporter(reporters.toArray(new Reporter[0])));
+                    }
+                };
+                // expose the active trace and span ids to log lines via the MDC
+                ScopeManager scopeManager = new MdcScopeManager(new ThreadLocalScopeManager());
+                if (profiler != null) {
+                    scopeManager = profiler.scopeManager(scopeManager);
+                }
+                return builder.withScopeManager(scopeManager);
+            }
+        };
+        config.withSampler(samplerConfig)
                 .withReporter(reporterConfig);
 
         return config.getTracer();
     }
 
     public static Span startServerSpan(Tracer tracer, HttpHeaders httpHeaders, String operationName) {
-        // format the headers for extraction
-        MultivaluedMap<String, String> rawHeaders = httpHeaders.getRequestHeaders();
-        final HashMap<String, String> headers = new HashMap<String, String>();
-        for (String key : rawHeaders.keySet()) {
-            headers.put(key, rawHeaders.get(key).get(0));
+        Tracer.SpanBuilder spanBuilder = tracer.buildSpan(operationName);
+        SpanContext parentSpanCtx = extract(tracer, httpHeaders);
+        if (parentSpanCtx != null) {
+            spanBuilder = spanBuilder.asChildOf(parentSpanCtx);
         }
+        // TODO could add more tags like http.url
+        Span span = spanBuilder.withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER).start();
+        Deadline.extract(httpHeaders, span);
+        return span;
+    }
 
-        Tracer.SpanBuilder spanBuilder;
-        try {
-            SpanContext parentSpanCtx = tracer.extract(Format.Builtin.HTTP_HEADERS, new TextMapAdapter(headers));
-            if (parentSpanCtx == null) {
-                spanBuilder = tracer.buildSpan(operationName);
-            } else {
-                spanBuilder = tracer.buildSpan(operationName).asChildOf(parentSpanCtx);
+    private static SpanContext extract(Tracer tracer, HttpHeaders httpHeaders) {
+        // read the headers in place rather than copying them into a map for extraction
+        final MultivaluedMap<String, String> rawHeaders = httpHeaders.getRequestHeaders();
+        TextMap carrier = new TextMap() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                final Iterator<Map.Entry<String, List<String>>> it = rawHeaders.entrySet().iterator();
+                return new Iterator<Map.Entry<String, String>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, String> next() {
+                        Map.Entry<String, List<String>> header = it.next();
+                        return new AbstractMap.SimpleImmutableEntry<String, String>(header.getKey(),
+                                header.getValue().get(0));
+                    }
+                };
+            }
+
+            @Override
+            public void put(String key, String value) {
+                throw new UnsupportedOperationException("carrier is read-only");
             }
+        };
+        try {
+            return tracer.extract(Format.Builtin.HTTP_HEADERS, carrier);
         } catch (IllegalArgumentException e) {
-            spanBuilder = tracer.buildSpan(operationName);
+            return null;
         }
-        // TODO could add more tags like http.url
-        return spanBuilder.withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER).start();
+    }
+
+    /**
+     * Runs the supplier on the executor with the span active, and finishes the span once the returned future
+     * completes. The span must not be finished by the caller. If the executor rejects the task, the span is finished
+     * right away and the future fails with the {@link RejectedExecutionException} itself rather than wrapped in a
+     * {@link CompletionException}, so that {@link RejectedExecutionMapper} can turn it into a 503 response.
+     */
+    public static <T> CompletableFuture<T> supplyAsync(Tracer tracer, Span span, Supplier<T> supplier,
+            Executor executor) {
+        CompletableFuture<T> future;
+        try {
+            future = CompletableFuture.supplyAsync(() -> {
+                try (Scope scope = tracer.scopeManager().activate(span)) {
+                    return supplier.get();
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            logError(span, e);
+            span.finish();
+            CompletableFuture<T> rejected = new CompletableFuture<T>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+        return future.whenComplete((result, error) -> {
+            if (error != null) {
+                logError(span, error instanceof CompletionException ? error.getCause() : error);
+            }
+            span.finish();
+        });
+    }
+
+    private static void logError(Span span, Throwable error) {
+        Tags.ERROR.set(span, true);
+        span.log(ImmutableMap.of(Fields.EVENT, "error", Fields.ERROR_OBJECT, error));
     }
 
     public static TextMap requestBuilderCarrier(final Request.Builder builder) {
@@ -0,0 +1,69 @@
+package lib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.NoopReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.opentracing.Span;
+import okhttp3.Request;
+
+public class DeadlineTest {
+    private final JaegerTracer tracer = new JaegerTracer.Builder("test")
+            .withSampler(new ConstSampler(true))
+            .withReporter(new NoopReporter())
+            .build();
+
+    @After
+    public void close() {
+        tracer.close();
+    }
+
+    @Test
+    public void keepsTheEarlierDeadline() {
+        Span span = tracer.buildSpan("say-hello").start();
+        assertEquals(Long.MAX_VALUE, Deadline.remainingMillis(span));
+
+        Deadline.set(span, 1000);
+        Deadline.set(span, 5000);
+        assertTrue(Deadline.remainingMillis(span) <= 1000);
+
+        Deadline.set(span, 100);
+        assertTrue(Deadline.remainingMillis(span) <= 100);
+    }
+
+    @Test
+    public void childSpansInheritTheDeadline() {
+        Span parent = tracer.buildSpan("say-hello").start();
+        Deadline.set(parent, 1000);
+        Span child = tracer.buildSpan("formatString").asChildOf(parent).start();
+
+        assertEquals(Deadline.get(parent), Deadline.get(child));
+    }
+
+    @Test
+    public void injectsTheRemainingBudget() {
+        Span span = tracer.buildSpan("formatString").start();
+        Request.Builder withoutDeadline = new Request.Builder().url("http://localhost/format");
+        Deadline.inject(span, withoutDeadline);
+        assertNull(withoutDeadline.build().header(Deadline.HEADER));
+
+        Deadline.set(span, 1000);
+        Request.Builder withDeadline = new Request.Builder().url("http://localhost/format");
+        Deadline.inject(span, withDeadline);
+        long budget = Long.parseLong(withDeadline.build().header(Deadline.HEADER));
+        assertTrue(budget > 0 && budget <= 1000);
+    }
+
+    @Test(expected = Deadline.DeadlineExceededException.class)
+    public void checkFailsOnceTheDeadlineHasPassed() {
+        Span span = tracer.buildSpan("formatString").start();
+        Deadline.set(span, -1);
+        Deadline.check(span);
+    }
+}
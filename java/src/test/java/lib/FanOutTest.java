@@ -0,0 +1,84 @@
+package lib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.InMemoryReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.opentracing.Span;
+
+public class FanOutTest {
+    private final InMemoryReporter reporter = new InMemoryReporter();
+    private final JaegerTracer tracer = new JaegerTracer.Builder("test")
+            .withSampler(new ConstSampler(true))
+            .withReporter(reporter)
+            .build();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void close() {
+        executor.shutdownNow();
+        tracer.close();
+    }
+
+    @Test
+    public void joinWaitsForCancelledSubtasksToExit() throws InterruptedException {
+        Span parent = tracer.buildSpan("parent").start();
+        CountDownLatch started = new CountDownLatch(1);
+        try (FanOut fanOut = FanOut.of(tracer, parent, executor, true)) {
+            fanOut.fork("slow", () -> slowToStop(started));
+            started.await();
+            fanOut.fork("failing", () -> {
+                throw new IOException("failed");
+            });
+            try {
+                fanOut.join();
+                fail("expected the failure");
+            } catch (FanOut.FanOutException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            assertTrue(finishedOperations().contains("slow"));
+        }
+    }
+
+    @Test
+    public void closeWaitsForCancelledSubtasksToExit() throws InterruptedException {
+        Span parent = tracer.buildSpan("parent").start();
+        CountDownLatch started = new CountDownLatch(1);
+        try (FanOut fanOut = FanOut.of(tracer, parent, executor, true)) {
+            fanOut.fork("slow", () -> slowToStop(started));
+            started.await();
+        }
+        assertEquals(1, finishedOperations().size());
+        assertEquals("slow", finishedOperations().get(0));
+    }
+
+    private static String slowToStop(CountDownLatch started) throws InterruptedException {
+        started.countDown();
+        try {
+            Thread.sleep(10_000);
+        } catch (InterruptedException e) {
+            // keeps running for a while after the interrupt, like a task cleaning up
+            Thread.sleep(200);
+            throw e;
+        }
+        return "slow";
+    }
+
+    private List<String> finishedOperations() {
+        return reporter.getSpans().stream().map(JaegerSpan::getOperationName).collect(Collectors.toList());
+    }
+}
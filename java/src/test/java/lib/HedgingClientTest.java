@@ -0,0 +1,175 @@
+package lib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.InMemoryReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.opentracing.log.Fields;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+public class HedgingClientTest {
+    private final JaegerTracer tracer = new JaegerTracer.Builder("test")
+            .withSampler(new ConstSampler(true))
+            .withReporter(new InMemoryReporter())
+            .build();
+    // without retries, so that a failed attempt is not silently repeated by OkHttp
+    private final OkHttpClient okHttp = new OkHttpClient.Builder().retryOnConnectionFailure(false).build();
+    private final ExecutorService handlers = Executors.newCachedThreadPool();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile Reply[] replies;
+    private HttpServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            Reply[] current = replies;
+            Reply reply = current[Math.min(requests.getAndIncrement(), current.length - 1)];
+            try {
+                Thread.sleep(reply.delayMillis);
+            } catch (InterruptedException e) {
+                exchange.close();
+                return;
+            }
+            if (reply.body == null) {
+                // closes the connection without a response
+                exchange.close();
+                return;
+            }
+            byte[] body = reply.body.getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(handlers);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        handlers.shutdownNow();
+        okHttp.dispatcher().executorService().shutdown();
+        okHttp.connectionPool().evictAll();
+        tracer.close();
+    }
+
+    @Test
+    public void hedgeWinsOverSlowFirstAttempt() throws IOException {
+        replies = new Reply[] { Reply.ok(2000, "slow"), Reply.ok(0, "fast") };
+        JaegerSpan span = tracer.buildSpan("formatString").start();
+        long start = System.nanoTime();
+
+        String body = execute(new HedgingClient(okHttp, true, 50), span);
+
+        assertEquals("fast", body);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1500);
+        assertEquals(2, requests.get());
+        assertEquals(List.of("hedge", "cancel"), events(span));
+    }
+
+    @Test
+    public void hedgeIsNotSentBeforeItsDelay() throws IOException {
+        replies = new Reply[] { Reply.ok(0, "first") };
+        JaegerSpan span = tracer.buildSpan("formatString").start();
+
+        assertEquals("first", execute(new HedgingClient(okHttp, true, 500), span));
+        assertEquals(1, requests.get());
+        assertEquals(List.of(), events(span));
+    }
+
+    @Test
+    public void deadlineExpiryCancelsTheCall() throws IOException {
+        replies = new Reply[] { Reply.ok(2000, "slow") };
+        JaegerSpan span = tracer.buildSpan("formatString").start();
+        Deadline.set(span, 100);
+        long start = System.nanoTime();
+
+        try {
+            execute(new HedgingClient(okHttp, false), span);
+            fail("expected the deadline to expire");
+        } catch (Deadline.DeadlineExceededException e) {
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        }
+        assertTrue(events(span).contains("deadline-exceeded"));
+    }
+
+    @Test
+    public void firstFailureBeforeHedgeDelayFailsTheRequest() {
+        replies = new Reply[] { Reply.fail(0), Reply.ok(0, "hedge") };
+        JaegerSpan span = tracer.buildSpan("formatString").start();
+
+        try {
+            execute(new HedgingClient(okHttp, true, 500), span);
+            fail("expected the failure of the only attempt");
+        } catch (IOException e) {
+            assertEquals(1, requests.get());
+        }
+    }
+
+    @Test
+    public void hedgeSurvivesFailureOfFirstAttempt() throws IOException {
+        replies = new Reply[] { Reply.fail(150), Reply.ok(300, "hedge") };
+        JaegerSpan span = tracer.buildSpan("formatString").start();
+
+        assertEquals("hedge", execute(new HedgingClient(okHttp, true, 50), span));
+        assertEquals(2, requests.get());
+    }
+
+    private String execute(HedgingClient client, JaegerSpan span) throws IOException {
+        Request request = new Request.Builder().url("http://localhost:" + server.getAddress().getPort() + "/format")
+                .build();
+        try (Response response = client.execute(request, span)) {
+            return response.body().string();
+        }
+    }
+
+    private static List<String> events(JaegerSpan span) {
+        if (span.getLogs() == null) {
+            return List.of();
+        }
+        return span.getLogs().stream().map(log -> (String) log.getFields().get(Fields.EVENT))
+                .collect(Collectors.toList());
+    }
+
+    private static final class Reply {
+        final long delayMillis;
+        final String body;
+
+        private Reply(long delayMillis, String body) {
+            this.delayMillis = delayMillis;
+            this.body = body;
+        }
+
+        static Reply ok(long delayMillis, String body) {
+            return new Reply(delayMillis, body);
+        }
+
+        static Reply fail(long delayMillis) {
+            return new Reply(delayMillis, null);
+        }
+    }
+}
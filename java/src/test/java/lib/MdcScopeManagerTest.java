@@ -0,0 +1,58 @@
+package lib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.MDC;
+
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.NoopReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import io.opentracing.util.ThreadLocalScopeManager;
+
+public class MdcScopeManagerTest {
+    private final MdcScopeManager scopeManager = new MdcScopeManager(new ThreadLocalScopeManager());
+    private final JaegerTracer tracer = new JaegerTracer.Builder("test")
+            .withSampler(new ConstSampler(true))
+            .withReporter(new NoopReporter())
+            .withScopeManager(scopeManager)
+            .build();
+
+    @After
+    public void close() {
+        tracer.close();
+        MDC.clear();
+    }
+
+    @Test
+    public void putsIdsOfActiveSpanAndRestoresPreviousOnes() {
+        Span parent = tracer.buildSpan("parent").start();
+        Span child = tracer.buildSpan("child").asChildOf(parent).start();
+        try (Scope outer = scopeManager.activate(parent)) {
+            try (Scope inner = scopeManager.activate(child)) {
+                assertEquals(child.context().toTraceId(), MDC.get(MdcScopeManager.TRACE_ID));
+                assertEquals(child.context().toSpanId(), MDC.get(MdcScopeManager.SPAN_ID));
+            }
+            assertEquals(parent.context().toSpanId(), MDC.get(MdcScopeManager.SPAN_ID));
+        }
+        assertNull(MDC.get(MdcScopeManager.TRACE_ID));
+        assertNull(MDC.get(MdcScopeManager.SPAN_ID));
+    }
+
+    @Test
+    public void activatingNullRemovesIdsForTheScope() {
+        Span span = tracer.buildSpan("span").start();
+        try (Scope outer = scopeManager.activate(span)) {
+            try (Scope inner = scopeManager.activate(null)) {
+                assertNull(scopeManager.activeSpan());
+                assertNull(MDC.get(MdcScopeManager.TRACE_ID));
+                assertNull(MDC.get(MdcScopeManager.SPAN_ID));
+            }
+            assertEquals(span.context().toSpanId(), MDC.get(MdcScopeManager.SPAN_ID));
+        }
+    }
+}
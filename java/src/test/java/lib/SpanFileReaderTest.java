@@ -0,0 +1,171 @@
+package lib;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.samplers.ConstSampler;
+
+public class SpanFileReaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsEveryTagType() throws IOException {
+        Map<String, Object> tags = new HashMap<String, Object>();
+        tags.put("string", "value");
+        tags.put("true", true);
+        tags.put("false", false);
+        tags.put("int", 200);
+        tags.put("long", -5_000_000_000L);
+        tags.put("double", 1.5);
+        tags.put("float", 0.25f);
+        tags.put("other", new StringBuilder("built"));
+        Path file = writeFile(SpanFileFormat.encodeBlock(Arrays.asList(span(1, 100, tags))));
+
+        SpanRecord span = read(new SpanFileReader(), file).get(0);
+
+        assertEquals("value", span.getTag("string"));
+        assertEquals(Boolean.TRUE, span.getTag("true"));
+        assertEquals(Boolean.FALSE, span.getTag("false"));
+        assertEquals(200L, span.getTag("int"));
+        assertEquals(-5_000_000_000L, span.getTag("long"));
+        assertEquals(1.5, span.getTag("double"));
+        assertEquals(0.25, span.getTag("float"));
+        assertEquals("built", span.getTag("other"));
+        assertEquals(8, span.getTags().size());
+    }
+
+    @Test
+    public void filtersNumericTagsByValue() throws IOException {
+        Map<String, Object> tags = new HashMap<String, Object>();
+        tags.put("http.status_code", 200);
+        tags.put("ratio", 0.5f);
+        Path file = writeFile(SpanFileFormat.encodeBlock(Arrays.asList(span(1, 100, tags))));
+
+        assertEquals(1, read(new SpanFileReader().withTag("http.status_code", 200), file).size());
+        assertEquals(1, read(new SpanFileReader().withTag("http.status_code", 200L), file).size());
+        assertEquals(1, read(new SpanFileReader().withTag("http.status_code", 200.0), file).size());
+        assertEquals(0, read(new SpanFileReader().withTag("http.status_code", 500), file).size());
+        assertEquals(0, read(new SpanFileReader().withTag("http.status_code", "200"), file).size());
+        assertEquals(1, read(new SpanFileReader().withTag("ratio", 0.5f), file).size());
+        assertEquals(1, read(new SpanFileReader().withTag("ratio", 0.5), file).size());
+    }
+
+    @Test
+    public void filtersTagsOfReportedSpans() throws IOException {
+        Path dir = folder.newFolder().toPath();
+        SpanFileReporter reporter = new SpanFileReporter(dir, "test");
+        JaegerTracer tracer = new JaegerTracer.Builder("test")
+                .withSampler(new ConstSampler(true))
+                .withReporter(reporter)
+                .build();
+        JaegerSpan ok = tracer.buildSpan("format").start();
+        ok.setTag("http.status_code", 200);
+        ok.finish();
+        JaegerSpan failed = tracer.buildSpan("format").start();
+        failed.setTag("http.status_code", 500);
+        failed.finish();
+        reporter.flush();
+
+        List<SpanRecord> spans = read(new SpanFileReader().withTag("http.status_code", 200), dir);
+
+        assertEquals(1, spans.size());
+        assertEquals(ok.context().getSpanId(), spans.get(0).getSpanId());
+        tracer.close();
+    }
+
+    @Test
+    public void decodesStartTimesOutOfOrder() throws IOException {
+        List<SpanRecord> written = Arrays.asList(span(1, 5000, null), span(2, 1000, null), span(3, 3000, null),
+                span(4, -200, null), span(5, 1000, null));
+        Path file = writeFile(SpanFileFormat.encodeBlock(written));
+
+        List<SpanRecord> spans = read(new SpanFileReader(), file);
+
+        assertEquals(Arrays.asList(5000L, 1000L, 3000L, -200L, 1000L),
+                spans.stream().map(SpanRecord::getStartMicros).collect(Collectors.toList()));
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), spanIds(spans));
+    }
+
+    @Test
+    public void skipsBlocksOutsideTimeRangeWithoutDecodingThem() throws IOException {
+        byte[] first = SpanFileFormat.encodeBlock(Arrays.asList(span(1, 100, null), span(2, 200, null)));
+        // a payload that fails to inflate, so reading fails unless the block is skipped by its header
+        byte[] corrupt = corruptBlock(1000, 2000);
+        byte[] last = SpanFileFormat.encodeBlock(Arrays.asList(span(3, 3000, null), span(4, 4000, null)));
+        Path file = writeFile(first, corrupt, last);
+
+        assertEquals(Arrays.asList(1L, 2L), spanIds(read(new SpanFileReader().withTimeRange(0, 500), file)));
+        assertEquals(Arrays.asList(2L), spanIds(read(new SpanFileReader().withTimeRange(150, 1000), file)));
+        assertEquals(Arrays.asList(3L), spanIds(read(new SpanFileReader().withTimeRange(2001, 4000), file)));
+    }
+
+    @Test(expected = Exception.class)
+    public void failsOnCorruptBlockInTimeRange() throws IOException {
+        Path file = writeFile(corruptBlock(1000, 2000));
+        read(new SpanFileReader().withTimeRange(1500, 1600), file);
+    }
+
+    @Test(expected = Exception.class)
+    public void failsOnTruncatedBlockOutsideTimeRange() throws IOException {
+        byte[] block = corruptBlock(1000, 2000);
+        // the header claims the full payload but the file ends early
+        Path file = writeFile(Arrays.copyOf(block, block.length - 4));
+        read(new SpanFileReader().withTimeRange(3000, 4000), file);
+    }
+
+    private static SpanRecord span(long spanId, long startMicros, Map<String, Object> tags) {
+        return new SpanRecord(0, 42, spanId, 0, "service", "operation", startMicros, 10,
+                tags == null ? new HashMap<String, Object>() : tags);
+    }
+
+    private static byte[] corruptBlock(long minStartMicros, long maxStartMicros) throws IOException {
+        byte[] payload = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(block);
+        new SpanFileFormat.BlockHeader(payload.length, 1, minStartMicros, maxStartMicros).write(out);
+        out.write(payload);
+        out.flush();
+        return block.toByteArray();
+    }
+
+    private Path writeFile(byte[]... blocks) throws IOException {
+        Path file = folder.newFile("test" + SpanFileReporter.FILE_SUFFIX).toPath();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(SpanFileFormat.MAGIC);
+            out.writeByte(SpanFileFormat.VERSION);
+            for (byte[] block : blocks) {
+                out.write(block);
+            }
+        }
+        return file;
+    }
+
+    private static List<SpanRecord> read(SpanFileReader reader, Path path) throws IOException {
+        try (Stream<SpanRecord> spans = reader.stream(path)) {
+            return spans.collect(Collectors.toList());
+        }
+    }
+
+    private static List<Long> spanIds(List<SpanRecord> spans) {
+        return spans.stream().map(SpanRecord::getSpanId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,51 @@
+package lib;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.samplers.ConstSampler;
+
+public class SpanFileReporterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesPartialBlockAfterFlushInterval() throws Exception {
+        Path dir = folder.newFolder().toPath();
+        SpanFileReporter reporter = new SpanFileReporter(dir, "test", 1024 * 1024, 4096, 50, TimeUnit.MILLISECONDS);
+        JaegerTracer tracer = new JaegerTracer.Builder("test")
+                .withSampler(new ConstSampler(true))
+                .withReporter(reporter)
+                .build();
+        tracer.buildSpan("format").start().finish();
+
+        // no flush: the block is far from full, only the timer writes it
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (reporter.getSpansWritten() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, reporter.getSpansWritten());
+        List<SpanRecord> spans = read(dir);
+        assertEquals(1, spans.size());
+        assertEquals("format", spans.get(0).getOperation());
+        tracer.close();
+    }
+
+    private static List<SpanRecord> read(Path dir) throws IOException {
+        try (Stream<SpanRecord> spans = new SpanFileReader().stream(dir)) {
+            return spans.collect(Collectors.toList());
+        }
+    }
+}
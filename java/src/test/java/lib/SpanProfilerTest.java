@@ -0,0 +1,82 @@
+package lib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.jaegertracing.internal.JaegerSpan;
+import io.jaegertracing.internal.JaegerTracer;
+import io.jaegertracing.internal.reporters.NoopReporter;
+import io.jaegertracing.internal.samplers.ConstSampler;
+import io.opentracing.Scope;
+import io.opentracing.ScopeManager;
+import io.opentracing.util.ThreadLocalScopeManager;
+
+public class SpanProfilerTest {
+    private static volatile long sink;
+
+    private final SpanProfiler profiler = new SpanProfiler(1, 50, TimeUnit.MILLISECONDS, 1, 64);
+    private final ScopeManager scopeManager = profiler.scopeManager(new ThreadLocalScopeManager());
+    private final JaegerTracer tracer = new JaegerTracer.Builder("test")
+            .withSampler(new ConstSampler(true))
+            .withReporter(new NoopReporter())
+            .withScopeManager(scopeManager)
+            .build();
+
+    @After
+    public void close() {
+        profiler.close();
+        tracer.close();
+    }
+
+    @Test
+    public void logsHotFramesOfSlowScope() {
+        JaegerSpan span = tracer.buildSpan("format").start();
+        try (Scope scope = scopeManager.activate(span)) {
+            spin(200);
+        }
+
+        assertEquals(1, events(span, "profile"));
+    }
+
+    @Test
+    public void slowNullActivationIsNotProfiled() {
+        JaegerSpan span = tracer.buildSpan("format").start();
+        try (Scope outer = scopeManager.activate(span)) {
+            try (Scope inner = scopeManager.activate(null)) {
+                assertNull(scopeManager.activeSpan());
+                spin(200);
+            }
+            assertSame(span, scopeManager.activeSpan());
+        }
+
+        StringWriter folded = new StringWriter();
+        profiler.writeFoldedStacks(null, new PrintWriter(folded));
+        assertFalse(folded.toString().contains("unknown"));
+        assertEquals(0, profiler.getActiveThreads());
+    }
+
+    private static void spin(long millis) {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long x = 0;
+        while (System.nanoTime() < end) {
+            x += x * 31 + 7;
+        }
+        sink = x;
+    }
+
+    private static long events(JaegerSpan span, String event) {
+        if (span.getLogs() == null) {
+            return 0;
+        }
+        return span.getLogs().stream().filter(log -> event.equals(log.getFields().get("event"))).count();
+    }
+}
@@ -0,0 +1,48 @@
+package lib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TinyLfuCacheTest {
+    @Test
+    public void rejectsCandidateUsedLessOftenThanVictim() {
+        // a window of one entry and a main region of one entry
+        TinyLfuCache<String, String> cache = new TinyLfuCache<String, String>(2, 1, TimeUnit.MINUTES);
+        cache.put("a", "a");
+        cache.put("b", "b");
+        for (int i = 0; i < 5; i++) {
+            cache.get("a");
+        }
+
+        cache.put("c", "c");
+
+        assertNull(cache.get("b"));
+        assertEquals("a", cache.get("a"));
+        assertEquals(1, cache.getRejections());
+    }
+
+    @Test
+    public void evictsExpiredVictimRegardlessOfFrequency() throws InterruptedException {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<String, String>(2, 200, TimeUnit.MILLISECONDS);
+        cache.put("a", "a");
+        cache.put("x", "x");
+        for (int i = 0; i < 5; i++) {
+            cache.get("a");
+        }
+        Thread.sleep(300);
+
+        // the expired window entry x is dropped, then the expired main entry a makes room for b
+        cache.put("b", "b");
+        cache.put("c", "c");
+
+        assertEquals("b", cache.get("b"));
+        assertEquals(0, cache.getRejections());
+        assertEquals(0, cache.getEvictions());
+        assertEquals(2, cache.getExpirations());
+        assertEquals(2, cache.size());
+    }
+}
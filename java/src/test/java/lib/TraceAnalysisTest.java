@@ -0,0 +1,137 @@
+package lib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import io.opentracing.tag.Tags;
+
+public class TraceAnalysisTest {
+    @Test
+    public void sequentialChildrenAreAllOnTheCriticalPath() {
+        SpanRecord root = span(1, 0, "root", 0, 100);
+        SpanRecord a = span(2, 1, "a", 10, 40);
+        SpanRecord b = span(3, 1, "b", 50, 90);
+
+        TraceAnalysis analysis = TraceAnalysis.of(Arrays.asList(root, a, b));
+
+        assertEquals(Arrays.asList("root 10", "a 30", "root 10", "b 40", "root 10"), path(analysis));
+        assertEquals(30, analysis.getCriticalMicros(root));
+        assertEquals(30, analysis.getSelfMicros(root));
+        assertEquals(30, analysis.getCriticalMicros(a));
+        assertEquals(40, analysis.getCriticalMicros(b));
+    }
+
+    @Test
+    public void onlyTheLastOfParallelChildrenIsOnTheCriticalPath() {
+        SpanRecord root = span(1, 0, "root", 0, 100);
+        SpanRecord a = span(2, 1, "a", 10, 60);
+        SpanRecord b = span(3, 1, "b", 20, 90);
+        SpanRecord c = span(4, 1, "c", 30, 50);
+
+        TraceAnalysis analysis = TraceAnalysis.of(Arrays.asList(root, a, b, c));
+
+        assertEquals(Arrays.asList("root 20", "b 70", "root 10"), path(analysis));
+        assertEquals(0, analysis.getCriticalMicros(a));
+        assertEquals(0, analysis.getCriticalMicros(c));
+        assertEquals(70, analysis.getCriticalMicros(b));
+        // self time is the part of the parent not covered by any child
+        assertEquals(20, analysis.getSelfMicros(root));
+        assertEquals(50, analysis.getSelfMicros(a));
+    }
+
+    @Test
+    public void childAfterParallelSiblingsIsOnTheCriticalPath() {
+        SpanRecord root = span(1, 0, "root", 0, 100);
+        SpanRecord a = span(2, 1, "a", 10, 40);
+        SpanRecord b = span(3, 1, "b", 10, 30);
+        SpanRecord c = span(4, 1, "c", 50, 80);
+
+        TraceAnalysis analysis = TraceAnalysis.of(Arrays.asList(root, a, b, c));
+
+        assertEquals(Arrays.asList("root 10", "a 30", "root 10", "c 30", "root 20"), path(analysis));
+        assertEquals(0, analysis.getCriticalMicros(b));
+    }
+
+    @Test
+    public void childEndingAfterItsParentIsCutOffAtTheParentsEnd() {
+        SpanRecord root = span(1, 0, "root", 0, 100);
+        SpanRecord child = span(2, 1, "child", 50, 130);
+        SpanRecord grandchild = span(3, 2, "grandchild", 60, 120);
+
+        TraceAnalysis analysis = TraceAnalysis.of(Arrays.asList(root, child, grandchild));
+
+        assertEquals(Arrays.asList("root 50", "child 10", "grandchild 40"), path(analysis));
+        assertEquals(100, analysis.getCriticalPath().stream()
+                .mapToLong(segment -> segment.getEndMicros() - segment.getStartMicros()).sum());
+        assertEquals(50, analysis.getSelfMicros(root));
+        assertEquals(20, analysis.getSelfMicros(child));
+    }
+
+    @Test
+    public void orphansAreNotOnTheCriticalPath() {
+        SpanRecord root = span(1, 0, "root", 0, 100);
+        SpanRecord child = span(2, 1, "child", 10, 90);
+        // the parent of these spans was lost, the orphan is longer than the root
+        SpanRecord orphan = span(3, 99, "orphan", 0, 150);
+        SpanRecord orphanChild = span(4, 3, "orphan-child", 20, 70);
+
+        TraceAnalysis analysis = TraceAnalysis.of(Arrays.asList(orphan, orphanChild, child, root));
+
+        assertSame(root, analysis.getRoot());
+        assertEquals(Arrays.asList("root 10", "child 80", "root 10"), path(analysis));
+        assertEquals(0, analysis.getCriticalMicros(orphan));
+        assertEquals(0, analysis.getCriticalMicros(orphanChild));
+        assertEquals(100, analysis.getSelfMicros(orphan));
+        assertEquals(50, analysis.getSelfMicros(orphanChild));
+    }
+
+    @Test
+    public void longestOrphanIsTheRootWithoutParentlessSpan() {
+        SpanRecord a = span(1, 99, "a", 0, 100);
+        SpanRecord b = span(2, 98, "b", 0, 50);
+
+        assertSame(a, TraceAnalysis.of(Arrays.asList(b, a)).getRoot());
+    }
+
+    @Test
+    public void hopGapIsTheClientTimeNotCoveredByTheServer() {
+        SpanRecord root = span(1, 0, "root", 0, 100);
+        SpanRecord client = span(2, 1, "client", 10, 90, Tags.SPAN_KIND_CLIENT);
+        SpanRecord server = span(3, 2, "server", 15, 80, Tags.SPAN_KIND_SERVER);
+
+        List<TraceAnalysis.Hop> hops = TraceAnalysis.of(Arrays.asList(root, client, server)).getHops();
+
+        assertEquals(1, hops.size());
+        assertEquals(15, hops.get(0).getGapMicros());
+        assertEquals(5, hops.get(0).getRequestGapMicros());
+        assertEquals(10, hops.get(0).getResponseGapMicros());
+    }
+
+    static SpanRecord span(long spanId, long parentId, String operation, long startMicros, long endMicros) {
+        return span(spanId, parentId, operation, startMicros, endMicros, null);
+    }
+
+    static SpanRecord span(long spanId, long parentId, String operation, long startMicros, long endMicros,
+            String kind) {
+        Map<String, Object> tags = new HashMap<String, Object>();
+        if (kind != null) {
+            tags.put(Tags.SPAN_KIND.getKey(), kind);
+        }
+        return new SpanRecord(0, 1, spanId, parentId, "service", operation, startMicros, endMicros - startMicros,
+                tags);
+    }
+
+    private static List<String> path(TraceAnalysis analysis) {
+        return analysis.getCriticalPath().stream()
+                .map(s -> s.getSpan().getOperation() + " " + (s.getEndMicros() - s.getStartMicros()))
+                .collect(Collectors.toList());
+    }
+}
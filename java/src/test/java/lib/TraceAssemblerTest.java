@@ -0,0 +1,97 @@
+package lib;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class TraceAssemblerTest {
+    private final List<List<SpanRecord>> emitted = new ArrayList<List<SpanRecord>>();
+
+    @Test
+    public void groupsInterleavedOutOfOrderSpansByTrace() {
+        TraceAssembler assembler = new TraceAssembler(1000, 100, emitted::add);
+        // children finish and arrive before their parents, and the traces interleave
+        assembler.accept(span(1, 3, 20, 50));
+        assembler.accept(span(2, 3, 30, 60));
+        assembler.accept(span(1, 2, 10, 80));
+        assembler.accept(span(2, 1, 0, 100));
+        assembler.accept(span(1, 1, 0, 90));
+        assembler.accept(span(2, 2, 40, 70));
+
+        assertEquals(0, emitted.size());
+        assertEquals(2, assembler.getOpenTraces());
+        assembler.flush();
+
+        assertEquals(Arrays.asList(Arrays.asList(3L, 2L, 1L), Arrays.asList(3L, 1L, 2L)), spanIds());
+        assertEquals(0, assembler.getOpenTraces());
+    }
+
+    @Test
+    public void emitsTracesOnceIdle() {
+        TraceAssembler assembler = new TraceAssembler(1000, 100, emitted::add);
+        assembler.accept(span(1, 2, 0, 100));
+        assembler.accept(span(1, 1, 0, 200));
+        assembler.accept(span(2, 1, 500, 1100));
+        assertEquals(0, emitted.size());
+
+        // the stream time moves past the end of trace 1 plus the idle time
+        assembler.accept(span(3, 1, 1000, 1200));
+
+        assertEquals(Collections.singletonList(Arrays.asList(2L, 1L)), spanIds());
+        assertEquals(2, assembler.getOpenTraces());
+    }
+
+    @Test
+    public void lateSpanKeepsTraceOpen() {
+        TraceAssembler assembler = new TraceAssembler(1000, 100, emitted::add);
+        assembler.accept(span(1, 2, 0, 100));
+        assembler.accept(span(2, 1, 0, 1050));
+        // arrives after trace 2 but ended earlier, and still within the idle time of the stream
+        assembler.accept(span(1, 1, 0, 900));
+        assertEquals(0, emitted.size());
+
+        assembler.accept(span(3, 1, 0, 1950));
+
+        assertEquals(Collections.singletonList(Arrays.asList(2L, 1L)), spanIds());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUpdatedTraceBeyondMaxOpenTraces() {
+        TraceAssembler assembler = new TraceAssembler(Long.MAX_VALUE / 2, 2, emitted::add);
+        assembler.accept(span(1, 1, 0, 10));
+        assembler.accept(span(2, 1, 0, 10));
+        assembler.accept(span(1, 2, 0, 20));
+        assertEquals(0, emitted.size());
+
+        assembler.accept(span(3, 1, 0, 30));
+
+        assertEquals(Collections.singletonList(Collections.singletonList(1L)), spanIds());
+        assertEquals(2L, emitted.get(0).get(0).getTraceIdLow());
+        assertEquals(2, assembler.getOpenTraces());
+
+        assembler.accept(span(4, 1, 0, 40));
+
+        assertEquals(2, emitted.size());
+        assertEquals(1L, emitted.get(1).get(0).getTraceIdLow());
+        assertEquals(Arrays.asList(1L, 2L), emitted.get(1).stream().map(SpanRecord::getSpanId)
+                .collect(Collectors.toList()));
+    }
+
+    private List<List<Long>> spanIds() {
+        return emitted.stream()
+                .map(trace -> trace.stream().map(SpanRecord::getSpanId).collect(Collectors.toList()))
+                .collect(Collectors.toList());
+    }
+
+    private static SpanRecord span(long traceId, long spanId, long startMicros, long endMicros) {
+        return new SpanRecord(0, traceId, spanId, 0, "service", "operation", startMicros, endMicros - startMicros,
+                new HashMap<String, Object>());
+    }
+}
@@ -0,0 +1,33 @@
+package lib;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import io.jaegertracing.internal.reporters.InMemoryReporter;
+import io.opentracing.Tracer;
+import io.opentracing.tag.Tags;
+
+public class TracingTest {
+    @Test
+    public void additionalReportersBypassThePipeline() {
+        InMemoryReporter exported = new InMemoryReporter();
+        InMemoryReporter direct = new InMemoryReporter();
+        SpanPipeline pipeline = SpanPipeline.builder()
+                .process("drop", SpanProcessor.dropOperations(Collections.singleton("format")))
+                .exportTo("memory", exported)
+                .build();
+
+        try (Tracer tracer = Tracing.init("test", pipeline, direct)) {
+            tracer.buildSpan("format").withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER).start().finish();
+            tracer.buildSpan("publish").start().finish();
+            pipeline.flush();
+
+            assertEquals(2, direct.getSpans().size());
+            assertEquals(1, exported.getSpans().size());
+            assertEquals("publish", exported.getSpans().get(0).getOperationName());
+        }
+    }
+}